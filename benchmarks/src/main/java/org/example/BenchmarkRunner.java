@@ -0,0 +1,61 @@
+package org.example;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results as JSON to target/jmh, one file
+ * per run, so they can be compared between versions. Arguments are regular JMH
+ * options; without a benchmark pattern everything runs, and the hot-row and
+ * writer benchmarks are repeated for 1, 2, 4, ... threads up to the number of
+ * cores.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        File out = new File("target/jmh");
+        out.mkdirs();
+
+        if (!cmd.getIncludes().isEmpty()) {
+            run(options(cmd, new File(out, "results.json")));
+            return;
+        }
+        run(options(cmd, new File(out, "scan-commit.json"))
+                .include(ScanBenchmark.class.getSimpleName())
+                .include(CommitBenchmark.class.getSimpleName()));
+        run(options(cmd, new File(out, "uncontended.json"))
+                .include(LockBenchmark.class.getSimpleName() + ".uncontended"));
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(cores, threads * 2)) {
+            run(options(cmd, new File(out, "hot-rows-" + threads + "t.json"))
+                    .include(LockBenchmark.class.getSimpleName() + ".hotRows")
+                    .threads(threads));
+            run(options(cmd, new File(out, "writers-" + threads + "t.json"))
+                    .include(WriterBenchmark.class.getSimpleName())
+                    .threads(threads));
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+
+    private static ChainedOptionsBuilder options(CommandLineOptions cmd, File result) {
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if (!cmd.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON).result(result.getPath());
+        }
+        return options;
+    }
+
+    private static void run(ChainedOptionsBuilder options) throws RunnerException {
+        new Runner(options.build()).run();
+    }
+}
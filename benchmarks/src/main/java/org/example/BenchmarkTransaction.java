@@ -0,0 +1,18 @@
+package org.example;
+
+/** A transaction that is driven by a benchmark thread instead of running itself. */
+final class BenchmarkTransaction extends Transaction {
+    private final AvoidDeadlockLockingTable table;
+
+    BenchmarkTransaction(final AvoidDeadlockLockingTable table) {
+        this.table = table;
+        begin_of_transaction();
+    }
+
+    @Override
+    public boolean rollback() {
+        table.releaseAllLocks(this);
+        begin_of_transaction();
+        return true;
+    }
+}
@@ -0,0 +1,57 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of one writer transaction from its first lock to commit. The
+ * simulated per-row write cost is switched off so the locking and commit
+ * work is what gets measured.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class CommitBenchmark {
+    // READ_UN_COMMITED, READ_COMMITED, REPEATABLE_READ, USE_TABLE_LOCKS, SNAPSHOT
+    @Param({"0", "1", "2", "3", "4"})
+    public int isolationLevel;
+
+    @Param({"AVOID_DEADLOCK", "INSTRUMENTED"})
+    public TableVariant variant;
+
+    @Param({"100"})
+    public int rowsPerWriter;
+
+    AvoidDeadlockWriter writer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AvoidDeadlockLockingTable.ADDITIONAL_WRITE_COST = 0;
+        AvoidDeadlockLockingTable.workload.writeSetSize = rowsPerWriter;
+        AvoidDeadlockLockingTable.numTasks = 1;
+        AvoidDeadlockLockingTable table = variant.create(isolationLevel, LockBenchmark.NUM_TUPLES);
+        writer = new AvoidDeadlockWriter(0, table, true);
+        table.myWriter[0] = writer;
+    }
+
+    @Benchmark
+    public void commit() {
+        writer.begin_of_transaction();
+        writer.execute();
+    }
+}
@@ -0,0 +1,89 @@
+package org.example;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Lock acquire/release round trips. The uncontended benchmarks give every
+ * thread rows on its own page; hotRows sends all threads to a handful of rows,
+ * so run it with several thread counts (BenchmarkRunner does 1..N). A request
+ * that gets its transaction aborted rolls back and counts as an operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "--add-modules", "jdk.incubator.vector"})
+public class LockBenchmark {
+    static final int NUM_TUPLES = 1 << 20;
+
+    @State(Scope.Benchmark)
+    public static class Table {
+        @Param({"AVOID_DEADLOCK", "INSTRUMENTED"})
+        public TableVariant variant;
+
+        @Param({"TIMESTAMP_ORDERED", "DETECT"})
+        public String policy;
+
+        @Param({"4"})
+        public int hotRows;
+
+        AvoidDeadlockLockingTable table;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            AvoidDeadlockLockingTable.deadlockPolicy = AvoidDeadlockLockingTable.DeadlockPolicy.valueOf(policy);
+            table = variant.create(AvoidDeadlockLockingTable.READ_COMMITED, NUM_TUPLES);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        BenchmarkTransaction txn;
+        SplittableRandom random;
+        int ownRow;
+
+        @Setup(Level.Trial)
+        public void setUp(Table t, ThreadParams threads) {
+            txn = new BenchmarkTransaction(t.table);
+            random = new SplittableRandom(threads.getThreadIndex());
+            ownRow = (threads.getThreadIndex() << AvoidDeadlockLockingTable.PAGE_SHIFT) % NUM_TUPLES;
+        }
+    }
+
+    @Benchmark
+    public void uncontendedWrite(Table t, Worker w) {
+        t.table.getWriteLock(w.ownRow, w.txn, true);
+        t.table.releaseAllLocks(w.txn);
+    }
+
+    @Benchmark
+    public void uncontendedRead(Table t, Worker w) {
+        t.table.getReadLock(w.ownRow, w.txn, true);
+        t.table.releaseAllLocks(w.txn);
+    }
+
+    @Benchmark
+    public void hotRows(Table t, Worker w) {
+        try {
+            t.table.getWriteLock(w.random.nextInt(t.hotRows), w.txn, true);
+            t.table.releaseAllLocks(w.txn);
+        } catch (TransactionAbortedException e) {
+            w.txn.rollback();
+        }
+    }
+}
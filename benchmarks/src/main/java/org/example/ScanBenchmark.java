@@ -0,0 +1,56 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** One full-scan read transaction (both passes) per operation, without concurrent writers. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class ScanBenchmark {
+    // READ_UN_COMMITED, READ_COMMITED, REPEATABLE_READ, USE_TABLE_LOCKS, SNAPSHOT
+    @Param({"0", "1", "2", "3", "4"})
+    public int isolationLevel;
+
+    @Param({"AVOID_DEADLOCK", "INSTRUMENTED"})
+    public TableVariant variant;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    @Param({"1000000"})
+    public int numTuples;
+
+    AvoidDeadlockLockingTable table;
+    AvoidDeadlockReader reader;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AvoidDeadlockLockingTable.parallelScans = parallel;
+        table = variant.create(isolationLevel, numTuples);
+        reader = new AvoidDeadlockReader(table, Transaction.TransactionType.FULL_SCAN_READ, true, new AtomicInteger());
+    }
+
+    @Benchmark
+    public long fullScan() {
+        reader.begin_of_transaction();
+        reader.executeFullScanRead();
+        return reader.anomalies.nonRepeatable() + reader.anomalies.uncommitted();
+    }
+}
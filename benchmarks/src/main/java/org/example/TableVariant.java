@@ -0,0 +1,16 @@
+package org.example;
+
+/** The table implementations the benchmarks compare. */
+public enum TableVariant {
+    AVOID_DEADLOCK,
+    INSTRUMENTED;
+
+    AvoidDeadlockLockingTable create(final int isolation_level, final int numTuples) {
+        switch (this) {
+            case INSTRUMENTED:
+                return new InstrumentedLockingTable(isolation_level, numTuples);
+            default:
+                return new AvoidDeadlockLockingTable(isolation_level, numTuples);
+        }
+    }
+}
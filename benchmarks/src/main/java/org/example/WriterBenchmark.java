@@ -0,0 +1,66 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Committed writers per second, lock-based against optimistic. Every writer
+ * updates rowsPerWriter rows drawn from a table of numTuples rows, uniformly
+ * or Zipfian-skewed, so the smaller the table and the more skewed the keys
+ * the more writers collide; run it with several thread
+ * counts (BenchmarkRunner does 1..N). Aborted writers and writers that fail
+ * validation are retried until they commit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "--add-modules", "jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class WriterBenchmark {
+    @Param({"false", "true"})
+    public boolean optimistic;
+
+    @Param({"1048576", "65536", "4096"})
+    public int numTuples;
+
+    @Param({"20"})
+    public int rowsPerWriter;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public String keys;
+
+    // ms slept per row; lock-based writers sleep holding their locks, optimistic ones before validating
+    @Param({"0", "1"})
+    public long writeCost;
+
+    AvoidDeadlockLockingTable table;
+    final AtomicInteger tasks = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AvoidDeadlockLockingTable.optimisticWriters = optimistic;
+        AvoidDeadlockLockingTable.ADDITIONAL_WRITE_COST = writeCost;
+        AvoidDeadlockLockingTable.workload.writeSetSize = rowsPerWriter;
+        AvoidDeadlockLockingTable.workload.keyDistribution = Workload.KeyDistribution.valueOf(keys);
+        table = new AvoidDeadlockLockingTable(AvoidDeadlockLockingTable.READ_COMMITED, numTuples);
+    }
+
+    @Benchmark
+    public void write() {
+        new AvoidDeadlockWriter(tasks.getAndIncrement(), table, true).executeWithRestarts();
+    }
+}
@@ -1,31 +1,69 @@
 package org.example;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.ArrayList;
+import java.util.random.RandomGenerator;
+import javax.management.ObjectName;
 
 public class AvoidDeadlockLockingTable {
-    private final ConcurrentHashMap<Integer, Transaction> lockHolders = new ConcurrentHashMap<>();
     static boolean favorOldTransactions = true;
 
+    /** How blocked lock requests are kept from deadlocking. */
+    enum DeadlockPolicy {
+        /** Wait, and abort a victim when the wait-for graph has a cycle. */
+        DETECT,
+        /** Wound-wait or wait-die by transaction age, depending on favorOldTransactions. */
+        TIMESTAMP_ORDERED
+    }
+    static DeadlockPolicy deadlockPolicy = DeadlockPolicy.TIMESTAMP_ORDERED;
+    static boolean parallelScans = false; // Full-scan readers split the table over the fork/join pool
+    static boolean virtualThreads = false; // One virtual thread per transaction instead of a pool of numTasks threads
+    static boolean optimisticWriters = false; // RC/RR writers lock nothing while working; they validate row versions at commit
+    static boolean pipelinedLocks = false; // Writers and multi-point readers request all row locks at once and wait once, instead of in tid order
+    static Path logFile = null; // Write-ahead log; null keeps the table in memory only
+    static int groupCommitSize = 8; // Commits that share one log flush...
+    static long groupCommitDelayMicros = 200; // ...or the longest a commit waits for others to join
+    static Path checkpointFile = null; // Tables open from and checkpoint to this file if set
+    static long checkpointIntervalMs = 0; // Fuzzy checkpoints while run() is busy, which needs logFile; 0 checkpoints only at the end
+    static boolean verbose = true; // Per-transaction messages on stdout; each one serializes the threads on the console
+    static int anomalySamples = 0; // Anomalies a reader keeps tid and execution of; the rest are only counted
+    static boolean valueIndex = false; // Ordered index on DATA_VALUE; always built if the workload has range reads
+    static boolean partitionAggregates = false; // SUM/COUNT/MIN/MAX per page; always kept if the workload has aggregate reads
+    static boolean deterministicScheduling = false; // Transactions run in epochs, in an order fixed by their declared rows; no locks, no aborts
+    static long epochMicros = 1000; // How long the sequencer collects transactions into one epoch
+    static final long DATA_SEED = 5; // Logged tables start from reproducible data the log is replayed on
+
     static int numTasks = 10;
-    static int numQueriesPerTask = 100;
+    static Workload workload = new Workload(); // Transaction mix, write set size and key distribution
     final AvoidDeadlockWriter[] myWriter;
     final ArrayList<AvoidDeadlockReader> myReaders = new ArrayList<>();
     static final int THOUSAND = 1000;
-    static final long ADDITIONAL_WRITE_COST = 10;
+    static long ADDITIONAL_WRITE_COST = 10; // ms slept per updated row
 
-    Random rand = new Random();
-    int numTuples = 5 * THOUSAND * THOUSAND;
+    final Workload.Keys keys;
+    private final SplittableRandom streams; // root of the transactions' random streams
+    static final int DEFAULT_NUM_TUPLES = 5 * THOUSAND * THOUSAND;
+    final int numTuples;
     double maxValue = 50.0f;
     AtomicInteger tasksFinished;
     public static final int NOT_MODIFIED = -1;
 
-    private double[][] tableData;
+    final TupleStore store;
     static final int DATA_ID = 0;
     static final int DATA_VALUE = 1;
     static final int MODIFIED_BY = 2;
@@ -33,91 +71,234 @@ public class AvoidDeadlockLockingTable {
     static final int READ_COMMITED = READ_UN_COMMITED + 1;
     static final int REPEATABLE_READ = READ_COMMITED + 1;
     static final int USE_TABLE_LOCKS = REPEATABLE_READ + 1;
+    static final int SNAPSHOT = USE_TABLE_LOCKS + 1;
 
     final int isolationLevel;
-    static final String[] LOCK_LEVEL_NAMES = {"READ_UN_COMMITED", "READ_COMMITED", "REPEATABLE_READ", "SERIAL"};
-    public final Semaphore rowLocks[];
-    private final Semaphore table_lock = new Semaphore(1, true);
-    long TIME_OUT = 5;
+    static final String[] LOCK_LEVEL_NAMES = {"READ_UN_COMMITED", "READ_COMMITED", "REPEATABLE_READ", "SERIAL", "SNAPSHOT"};
+    final TransactionSlots transactionSlots = new TransactionSlots();
+    final RowLockManager rowLocks;
+    final GranuleLockManager pageLocks;
+    final GranuleLockManager tableLocks;
+    static final int TABLE = 0;
+    static final int PAGE_SHIFT = 12; // 4096 rows per page
+    static int lockEscalationThreshold = 10 * THOUSAND; // row locks per transaction before escalating to a table lock
+    static final int ESCALATION_RETRY_INTERVAL = 1024;
+    static final int VALUE_RANGES = 1024; // granules of the value range locks, each an equal slice of [0, maxValue)
+    final GranuleLockManager rangeLocks;
+    final ValueIndex index; // null without valueIndex
+    final PartitionAggregates aggregates; // null without partitionAggregates
+    final DeterministicScheduler scheduler; // null without deterministicScheduling
+    final VersionStore versions; // only for SNAPSHOT
+    final WriteAheadLog wal;
+    final AtomicIntegerArray rowVersions; // bumped by every change of a row, validated by optimistic writers
+    final AtomicInteger scanEpoch = new AtomicInteger(); // advanced by every full scan as it starts its first pass
+    private final AtomicIntegerArray changedIn; // scan epoch of the last change of every row
+    long DEADLOCK_CHECK_INTERVAL = 10; // ms between wait-for graph updates of a blocked request
+    final DeadlockDetector deadlockDetector = new DeadlockDetector();
 
     // Statistics tracking
     private final AtomicInteger multiPointReadCount = new AtomicInteger(0);
     private final AtomicInteger fullScanReadCount = new AtomicInteger(0);
+    private final AtomicInteger rangeReadCount = new AtomicInteger(0);
+    private final AtomicInteger aggregateReadCount = new AtomicInteger(0);
     private final AtomicInteger writeCount = new AtomicInteger(0);
+    final AtomicInteger abortCount = new AtomicInteger(0);
+    final AtomicInteger escalationCount = new AtomicInteger(0);
+    final AtomicInteger validationFailures = new AtomicInteger(0);
+    final AtomicInteger activeTransactions = new AtomicInteger(0);
+    final LongAdder waiters = new LongAdder(); // lock requests currently waiting
 
     public AvoidDeadlockLockingTable(final int isolation_level) {
-        System.out.println("Creating Table with isolation level " + LOCK_LEVEL_NAMES[isolation_level] + " with " + numTuples + " tuples");
+        this(isolation_level, DEFAULT_NUM_TUPLES);
+    }
+
+    public AvoidDeadlockLockingTable(final int isolation_level, final int numTuples) {
+        if (checkpointFile != null && checkpointIntervalMs > 0 && logFile == null) {
+            throw new IllegalStateException("Fuzzy checkpoints while writers run need a log; set logFile or checkpointIntervalMs = 0");
+        }
+        if (optimisticWriters && pipelinedLocks) {
+            throw new IllegalStateException("Optimistic writers lock their rows in tid order, which does not mix with pipelinedLocks");
+        }
+        final boolean fromCheckpoint = checkpointFile != null && Files.exists(checkpointFile);
+        this.store = fromCheckpoint ? TupleStore.open(checkpointFile) : new TupleStore(numTuples);
+        this.numTuples = store.numTuples;
+        System.out.println("Creating Table with isolation level " + LOCK_LEVEL_NAMES[isolation_level] + " with " + this.numTuples + " tuples");
         this.isolationLevel = isolation_level;
         this.tasksFinished = new AtomicInteger(0);
         this.myWriter = new AvoidDeadlockWriter[numTasks];
 
-        this.tableData = new double[numTuples][3];
-        this.rowLocks = new Semaphore[numTuples];
+        this.rowLocks = new RowLockManager(this.numTuples, transactionSlots);
+        this.pageLocks = new GranuleLockManager((this.numTuples >>> PAGE_SHIFT) + 1, transactionSlots);
+        this.tableLocks = new GranuleLockManager(1, transactionSlots);
+        this.rangeLocks = new GranuleLockManager(VALUE_RANGES, transactionSlots);
+        this.versions = isolation_level == SNAPSHOT ? new VersionStore(store) : null;
+        this.rowVersions = new AtomicIntegerArray(this.numTuples);
+        this.changedIn = new AtomicIntegerArray(this.numTuples);
+        this.keys = workload.keys(this.numTuples);
+        this.streams = workload.rootStream();
 
-        initializeTableData();
+        if (fromCheckpoint) {
+            System.out.println("Opened checkpoint " + checkpointFile);
+        } else {
+            initializeTableData();
+        }
+        this.wal = logFile == null ? null : WriteAheadLog.recover(logFile, store, groupCommitSize, groupCommitDelayMicros);
+        this.index = valueIndex || workload.rangeReadShare > 0 ? new ValueIndex(store) : null;
+        this.aggregates = partitionAggregates || workload.aggregateReadShare > 0 ? new PartitionAggregates(store) : null;
+        if (deterministicScheduling && isolation_level == SNAPSHOT) {
+            throw new IllegalStateException("Deterministic scheduling writes in place; it does not keep SNAPSHOT versions");
+        }
+        this.scheduler = deterministicScheduling ? new DeterministicScheduler(epochMicros) : null;
     }
 
     private void initializeTableData() {
         System.out.print("Creating DB ");
+        RandomGenerator data = logFile == null ? newStream() : new Random(DATA_SEED);
         for (int i = 0; i < numTuples; i++) {
-            this.tableData[i][DATA_ID] = i;
-            this.tableData[i][DATA_VALUE] = rand.nextDouble() * maxValue;
-            this.tableData[i][MODIFIED_BY] = NOT_MODIFIED;
-            this.rowLocks[i] = new Semaphore(numTasks, true);
+            this.store.init(i, data.nextDouble() * maxValue);
         }
         System.out.println("[DONE]");
     }
 
     public void run() {
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(numTasks);
-        initializeTransactions(executor);
+        ExecutorService executor = virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(numTasks);
+        CountDownLatch done = new CountDownLatch(numTasks);
+        ScheduledExecutorService checkpointer = null;
+        if (checkpointFile != null && checkpointIntervalMs > 0) {
+            checkpointer = Executors.newSingleThreadScheduledExecutor();
+            checkpointer.scheduleWithFixedDelay(this::checkpoint, checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        ObjectName mbean = LockManagerStats.register(this);
+        if (scheduler != null) {
+            scheduler.start();
+        }
+        initializeTransactions(executor, done);
 
         double start = System.currentTimeMillis();
-        waitForCompletion(executor);
+        waitForCompletion(executor, done);
         double stop = System.currentTimeMillis();
+        LockManagerStats.unregister(mbean);
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+        if (checkpointer != null) {
+            checkpointer.shutdownNow();
+        }
+        if (checkpointFile != null) {
+            checkpoint();
+        }
 
         printStatistics(start, stop);
     }
 
-    private void initializeTransactions(ThreadPoolExecutor executor) {
-        // Create and start transactions based on random probability
+    /**
+     * Writes a checkpoint of the table. With a log this is a fuzzy checkpoint:
+     * writers keep running, the checkpoint remembers where the oldest running
+     * transaction started logging, and recovery replays the log from there. The
+     * log is forced before the new checkpoint replaces the old one, so nothing
+     * in it can be missing from the log. Without a log, only checkpoint a
+     * quiescent table.
+     *
+     * The log is not trimmed behind the checkpoint: recovery skips what lies
+     * before it, but the file keeps growing until it is deleted together with
+     * the checkpoint.
+     */
+    public void checkpoint() {
+        final long lsn = wal == null ? 0 : wal.checkpointLsn();
+        Path copy = store.writeCheckpoint(checkpointFile, lsn);
+        if (wal != null) {
+            wal.flush();
+        }
+        TupleStore.installCheckpoint(copy, checkpointFile);
+        System.out.println("Checkpoint written, log replay starts at " + lsn);
+    }
+
+    /** A random stream of its own for a new transaction. */
+    synchronized SplittableRandom newStream() {
+        return streams.split();
+    }
+
+    private void initializeTransactions(ExecutorService executor, CountDownLatch done) {
+        // Create and start transactions in the workload's mix
+        final SplittableRandom mix = newStream();
         for (int i = 0; i < numTasks; i++) {
-            double p = rand.nextDouble();
-            if (p >= Transaction.FULL_SCAN_THRESHOLD) {
+            Transaction.TransactionType type = workload.nextType(mix);
+            if (type == Transaction.TransactionType.WRITE) {
                 // Write transaction
-                System.out.println("Write");
+                if (verbose) {
+                    System.out.println("Write");
+                }
                 myWriter[i] = new AvoidDeadlockWriter(i, this, favorOldTransactions);
-                executor.execute(myWriter[i]);
+                executor.execute(counted(myWriter[i], done));
                 writeCount.incrementAndGet();
             }
-            else if (p >= Transaction.MULTI_POINT_THRESHOLD) {
+            else if (type == Transaction.TransactionType.FULL_SCAN_READ) {
                 // Full scan read transaction
-                System.out.println("Read");
-                AvoidDeadlockReader reader = new AvoidDeadlockReader(this, favorOldTransactions,writeCount);
+                if (verbose) {
+                    System.out.println("Read");
+                }
+                AvoidDeadlockReader reader = new AvoidDeadlockReader(this, type, favorOldTransactions, writeCount);
                 myReaders.add(reader);
-                executor.execute(reader);
+                executor.execute(counted(reader, done));
                 fullScanReadCount.incrementAndGet();
             }
+            else if (type == Transaction.TransactionType.RANGE_READ) {
+                // Value range read transaction
+                if (verbose) {
+                    System.out.println("Range");
+                }
+                AvoidDeadlockReader reader = new AvoidDeadlockReader(this, type, favorOldTransactions, writeCount);
+                myReaders.add(reader);
+                executor.execute(counted(reader, done));
+                rangeReadCount.incrementAndGet();
+            }
+            else if (type == Transaction.TransactionType.AGGREGATE_READ) {
+                // Aggregate read transaction
+                if (verbose) {
+                    System.out.println("Aggregate");
+                }
+                AvoidDeadlockReader reader = new AvoidDeadlockReader(this, type, favorOldTransactions, writeCount);
+                myReaders.add(reader);
+                executor.execute(counted(reader, done));
+                aggregateReadCount.incrementAndGet();
+            }
             else {
                 // Multi-point read transaction
-                System.out.println("8888888888888");
-                AvoidDeadlockReader reader = new AvoidDeadlockReader(this, favorOldTransactions,writeCount);
+                if (verbose) {
+                    System.out.println("8888888888888");
+                }
+                AvoidDeadlockReader reader = new AvoidDeadlockReader(this, type, favorOldTransactions, writeCount);
                 myReaders.add(reader);
-                executor.execute(reader);
+                executor.execute(counted(reader, done));
                 multiPointReadCount.incrementAndGet();
             }
         }
         executor.shutdown();
     }
 
-    private void waitForCompletion(ThreadPoolExecutor executor) {
-        while (!executor.isTerminated()) {
+    // Counts the task down when it ends, however it ends
+    private Runnable counted(Transaction task, CountDownLatch done) {
+        return () -> {
+            final long start = System.nanoTime();
+            activeTransactions.incrementAndGet();
             try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                task.run();
+            } finally {
+                activeTransactions.decrementAndGet();
+                onTransactionEnd(task, System.nanoTime() - start);
+                done.countDown();
             }
+        };
+    }
+
+    private void waitForCompletion(ExecutorService executor, CountDownLatch done) {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
         }
+        executor.close();
     }
 
     private void printStatistics(double start, double stop) {
@@ -125,49 +306,607 @@ public class AvoidDeadlockLockingTable {
         System.out.println("Total execution time: " + (stop - start) + " ms");
         System.out.println("Multi-point read transactions: " + multiPointReadCount.get());
         System.out.println("Full scan read transactions: " + fullScanReadCount.get());
+        System.out.println("Range read transactions: " + rangeReadCount.get());
+        System.out.println("Aggregate read transactions: " + aggregateReadCount.get());
         System.out.println("Write transactions: " + writeCount.get());
         System.out.println("Tasks finished: " + tasksFinished.get() + " of " + numTasks);
+        System.out.println("Aborted and restarted executions: " + abortCount.get());
+        System.out.println("Lock escalations: " + escalationCount.get());
+        if (optimisticWriters) {
+            System.out.println("Failed validations: " + validationFailures.get());
+        }
+        if (wal != null) {
+            System.out.println("Log flushes: " + wal.flushes + " for " + wal.commits + " commits");
+        }
+        if (scheduler != null) {
+            System.out.println("Epochs: " + scheduler.epochs.get() + " for " + scheduler.scheduled.get() + " scheduled executions");
+        }
         System.out.println("==========================\n");
     }
 
     public void getWriteLock(final int tid, Transaction requestingTransaction, boolean favorOlder) {
-        try {
-            while (!this.rowLocks[tid].tryAcquire(numTasks, TIME_OUT, java.util.concurrent.TimeUnit.SECONDS)) {
-                Transaction holdingTransaction = getHolderTransaction(tid);
-                if (holdingTransaction != null) {
-                    if (shouldAbort(requestingTransaction, holdingTransaction)) {
-                        System.out.println("Aborting " + (favorOlder ? "younger" : "older") + " transaction " + holdingTransaction);
-                        holdingTransaction.rollback();
+        if (lockIntentions(tid, requestingTransaction, LockMode.IX, LockMode.X)) {
+            return;
+        }
+        acquire(rowLocks, tid, requestingTransaction, LockMode.X);
+        requestingTransaction.writeLockGranted(tid);
+        maybeEscalate(requestingTransaction);
+    }
+
+    public void getReadLock(final int tid, Transaction requestingTransaction, boolean favorOlder) {
+        if (lockIntentions(tid, requestingTransaction, LockMode.IS, LockMode.S)) {
+            return;
+        }
+        acquire(rowLocks, tid, requestingTransaction, LockMode.S);
+        requestingTransaction.readLockGranted(tid);
+        maybeEscalate(requestingTransaction);
+    }
+
+    /**
+     * Write-locks a declared set of rows in one go. The tids are sorted and
+     * de-duplicated and locked in ascending order, each page intention lock
+     * right before the first row of the page. Writers and multi-point readers
+     * declare their rows this way and scans lock rows in ascending order
+     * anyway, so every transaction climbs table, page and row locks in the same
+     * global order and no wait among them can close a cycle. The waits
+     * therefore skip deadlock detection, wounding and dying; a request only
+     * gives up if the transaction is asked to abort by somebody else.
+     *
+     * The value range locks of lockValueMove are outside this order: they are
+     * taken afterwards and go through the deadlock policy.
+     *
+     * Older requests queued for a row are let go first, so a wound dealt when
+     * an asynchronous request was queued is not undone by barging past it.
+     * Still not to be mixed with pipelinedLocks, whose requests are not
+     * ordered: an older ordered writer would wait for a younger pipelined
+     * reader without wounding it. The table refuses optimisticWriters, which
+     * lock their write sets here, together with pipelinedLocks.
+     */
+    public void lockWriteSet(final int[] tids, Transaction requestingTransaction) {
+        lockSet(tids, requestingTransaction, LockMode.IX, LockMode.X);
+    }
+
+    public void lockReadSet(final int[] tids, Transaction requestingTransaction) {
+        lockSet(tids, requestingTransaction, LockMode.IS, LockMode.S);
+    }
+
+    private void lockSet(final int[] tids, Transaction requestingTransaction, final LockMode intent, final LockMode rowMode) {
+        requestingTransaction.checkAbort();
+        if (requestingTransaction.holdsTableLockCovering(rowMode)) {
+            return;
+        }
+        if (!requestingTransaction.holdsTableLock(intent)) {
+            acquireInOrder(tableLocks, TABLE, requestingTransaction, intent);
+            requestingTransaction.tableLockGranted(intent);
+        }
+        for (int tid : sortedDistinct(tids)) {
+            if (requestingTransaction.holdsTableLockCovering(rowMode)) {
+                return; // escalated on the way
+            }
+            final int page = tid >>> PAGE_SHIFT;
+            if (!requestingTransaction.holdsPageLock(page, intent)) {
+                acquireInOrder(pageLocks, page, requestingTransaction, intent);
+                requestingTransaction.pageLockGranted(page, intent);
+            }
+            acquireInOrder(rowLocks, tid, requestingTransaction, rowMode);
+            if (rowMode == LockMode.X) {
+                requestingTransaction.writeLockGranted(tid);
+            } else {
+                requestingTransaction.readLockGranted(tid);
+            }
+            maybeEscalate(requestingTransaction);
+        }
+    }
+
+    static int[] sortedDistinct(final int[] tids) {
+        int[] sorted = tids.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (n == 0 || sorted[i] != sorted[n - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+    }
+
+    // Waits in lock order need no deadlock handling, only a look at the abort flag now and then.
+    // Older queued requests still go first, as in acquireTimestampOrdered.
+    private void acquireInOrder(final LockSpace space, final int id, Transaction requestingTransaction, final LockMode mode) {
+        if (space.hasWaiters(id) || !space.tryLock(id, mode)) {
+            final LockEvents.Wait wait = waitStarted(id, requestingTransaction);
+            boolean granted = false;
+            space.holders.addWaiter(id, requestingTransaction, mode);
+            try {
+                while (true) {
+                    requestingTransaction.checkAbort();
+                    long observed = space.state(id);
+                    if (!space.holders.hasOlderWaiter(id, requestingTransaction, mode) && space.tryLock(id, mode)) {
+                        granted = true;
                         break;
                     }
+                    space.awaitChange(id, observed, DEADLOCK_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                throw new TransactionAbortedException(requestingTransaction);
+            } finally {
+                space.holders.removeWaiter(id, requestingTransaction, mode);
+                if (!granted) {
+                    space.retryAsync(id); // Queued requests may have been waiting behind this one
                 }
-                System.out.println(requestingTransaction + " Waiting for write lock of tuple " + tid + " Deadlock?");
+                waitEnded(wait, space, id, requestingTransaction, mode, granted);
+            }
+        }
+        space.holders.add(id, requestingTransaction, mode);
+        lockGranted(space, id, requestingTransaction, mode);
+    }
+
+    /**
+     * Locks the whole table, e.g. S for a full scan or X for a SERIAL writer.
+     * Row requests the table lock covers are then granted without locking.
+     */
+    public void lockTable(Transaction requestingTransaction, final LockMode mode) {
+        if (requestingTransaction.holdsTableLockCovering(mode)) {
+            return;
+        }
+        acquire(tableLocks, TABLE, requestingTransaction, mode);
+        requestingTransaction.tableLockGranted(mode);
+    }
+
+    /**
+     * Locks one page for a scan partition. Page locks taken this way are not
+     * recorded in the transaction, so scan workers can share it; each must be
+     * released with unlockPage before the transaction rolls back or releases
+     * its locks, which frees its holder slot. The transaction needs a table
+     * intention lock, and under DETECT may only wait for one page at a time.
+     */
+    void lockPage(final int page, Transaction requestingTransaction, final LockMode mode) {
+        acquire(pageLocks, page, requestingTransaction, mode);
+    }
+
+    void unlockPage(final int page, Transaction holdingTransaction, final LockMode mode) {
+        pageLocks.holders.remove(page, holdingTransaction, mode);
+        pageLocks.unlock(page, mode);
+    }
+
+    int valueRangeOf(final double value) {
+        return (int) Math.max(0, Math.min(VALUE_RANGES - 1, value / maxValue * VALUE_RANGES));
+    }
+
+    /**
+     * Locks [lo, hi] of the value domain in S for a REPEATABLE_READ range scan,
+     * against phantoms: writers need IX on the ranges of a row's old and new
+     * value, so while the lock is held no row can enter, leave or change inside
+     * the range. The ranges are tried without waiting; if one is taken, all are
+     * given back and the reader waits for that one alone, so it never waits
+     * while holding a range a writer could be waiting for.
+     */
+    public void lockValueRange(final double lo, final double hi, Transaction requestingTransaction) {
+        if (!requestingTransaction.holdsTableLock(LockMode.IS)) {
+            acquire(tableLocks, TABLE, requestingTransaction, LockMode.IS);
+            requestingTransaction.tableLockGranted(LockMode.IS);
+        }
+        final int first = valueRangeOf(lo);
+        final int last = valueRangeOf(hi);
+        int range = first;
+        while (range <= last) {
+            if (requestingTransaction.holdsRangeLock(range, LockMode.S)) {
+                range++;
+            } else if (rangeLocks.tryLock(range, LockMode.S)) {
+                rangeLocks.holders.add(range, requestingTransaction, LockMode.S);
+                lockGranted(rangeLocks, range, requestingTransaction, LockMode.S);
+                requestingTransaction.rangeLockGranted(range, LockMode.S);
+                range++;
+            } else {
+                releaseRangeLocks(requestingTransaction);
+                acquire(rangeLocks, range, requestingTransaction, LockMode.S);
+                requestingTransaction.rangeLockGranted(range, LockMode.S);
+                range = first; // start over, holding the one that was waited for
+            }
+        }
+    }
+
+    /**
+     * Takes the IX value range locks a writer needs before it moves a row to a
+     * new value; the row's write lock must be held. Only REPEATABLE_READ range
+     * scans lock value ranges, so this does nothing at other levels.
+     *
+     * The ranges depend on the new values, so they are requested after the
+     * rows, outside the order of lockWriteSet, and through the deadlock
+     * policy, which may wound a reader or abort the writer. Range readers lock
+     * no rows and give their ranges back before they wait, so none of them is
+     * ever waiting for the writer's rows.
+     */
+    public void lockValueMove(final int tid, final double new_value, Transaction requestingTransaction) {
+        if (index == null || isolationLevel != REPEATABLE_READ || requestingTransaction.holdsTableLockCovering(LockMode.X)) {
+            return;
+        }
+        lockValueRangeIX(valueRangeOf(store.getValue(tid)), requestingTransaction);
+        lockValueRangeIX(valueRangeOf(new_value), requestingTransaction);
+    }
+
+    private void lockValueRangeIX(final int range, Transaction requestingTransaction) {
+        if (!requestingTransaction.holdsRangeLock(range, LockMode.IX)) {
+            acquire(rangeLocks, range, requestingTransaction, LockMode.IX);
+            requestingTransaction.rangeLockGranted(range, LockMode.IX);
+        }
+    }
+
+    private void releaseRangeLocks(Transaction holdingTransaction) {
+        for (int rangeLock : holdingTransaction.myRangeLocks()) {
+            int range = Transaction.pageOf(rangeLock);
+            LockMode mode = Transaction.pageModeOf(rangeLock);
+            rangeLocks.holders.remove(range, holdingTransaction, mode);
+            rangeLocks.unlock(range, mode);
+        }
+        holdingTransaction.myRangeLocks().clear();
+    }
+
+    /**
+     * Takes the table and page intention locks a row lock needs. Returns true if
+     * a table lock the transaction already holds covers the row lock itself.
+     */
+    private boolean lockIntentions(final int tid, Transaction requestingTransaction, final LockMode intent, final LockMode rowMode) {
+        if (requestingTransaction.holdsTableLockCovering(rowMode)) {
+            return true;
+        }
+        if (!requestingTransaction.holdsTableLock(intent)) {
+            acquire(tableLocks, TABLE, requestingTransaction, intent);
+            requestingTransaction.tableLockGranted(intent);
+        }
+        final int page = tid >>> PAGE_SHIFT;
+        if (!requestingTransaction.holdsPageLock(page, intent)) {
+            acquire(pageLocks, page, requestingTransaction, intent);
+            requestingTransaction.pageLockGranted(page, intent);
+        }
+        return false;
+    }
+
+    /*
+     * Past the threshold, trade the table intention lock for a table S (readers)
+     * or X (writers) lock and drop the row and page locks. This only happens if
+     * it can be done without waiting; otherwise it is retried later.
+     */
+    private void maybeEscalate(Transaction t) {
+        final int rows = t.myReadLocks().size() + t.myWriteLocks().size();
+        if (rows < lockEscalationThreshold || (rows - lockEscalationThreshold) % ESCALATION_RETRY_INTERVAL != 0) {
+            return;
+        }
+        final LockMode from = t.myWriteLocks().isEmpty() ? LockMode.IS : LockMode.IX;
+        final LockMode to = from == LockMode.IS ? LockMode.S : LockMode.X;
+        if (t.holdsTableLock(LockMode.IX) && from == LockMode.IS || !tableLocks.tryConvert(TABLE, from, to)) {
+            return;
+        }
+        tableLocks.holders.add(TABLE, t, to);
+        tableLocks.holders.remove(TABLE, t, from);
+        t.tableLockConverted(from, to);
+        releaseRowAndPageLocks(t);
+        escalationCount.incrementAndGet();
+    }
+
+    /**
+     * Blocks until the lock is granted. A request that has to wait is handled
+     * by the table's deadlock policy; if the requester is aborted while asking,
+     * it gets a TransactionAbortedException and must roll back.
+     */
+    private void acquire(final LockSpace space, final int id, Transaction requestingTransaction, final LockMode mode) {
+        requestingTransaction.checkAbort();
+        try {
+            if (deadlockPolicy == DeadlockPolicy.DETECT) {
+                acquireDetectingDeadlocks(space, id, requestingTransaction, mode);
+            } else {
+                acquireTimestampOrdered(space, id, requestingTransaction, mode);
             }
-            setHolderTransaction(tid, requestingTransaction);
-            requestingTransaction.writeLockGranted(tid);
         } catch (InterruptedException e) {
             e.printStackTrace();
+            throw new TransactionAbortedException(requestingTransaction);
         }
+        space.holders.add(id, requestingTransaction, mode);
+        lockGranted(space, id, requestingTransaction, mode);
     }
 
-    public void getReadLock(final int tid, Transaction requestingTransaction, boolean favorOlder) {
+    // Waiters stay in the wait-for graph; a cycle aborts one of its members.
+    private void acquireDetectingDeadlocks(final LockSpace space, final int id, Transaction requestingTransaction, final LockMode mode) throws InterruptedException {
+        if (space.tryLock(id, mode)) {
+            return;
+        }
+        final LockEvents.Wait wait = waitStarted(id, requestingTransaction);
+        boolean granted = false;
+        Transaction[] holders = new Transaction[8];
         try {
-            while (!this.rowLocks[tid].tryAcquire(TIME_OUT, java.util.concurrent.TimeUnit.SECONDS)) {
-                Transaction holdingTransaction = getHolderTransaction(tid);
-                if (holdingTransaction != null) {
-                    if (shouldAbort(requestingTransaction, holdingTransaction)) {
-                        System.out.println("Aborting " + (favorOlder ? "younger" : "older") + " transaction " + holdingTransaction);
-                        holdingTransaction.rollback();
-                        break;
+            while (!space.lock(id, mode, DEADLOCK_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                requestingTransaction.checkAbort();
+                int count = space.holders.holders(id, mode, holders);
+                if (count > holders.length) {
+                    holders = new Transaction[count];
+                    count = Math.min(space.holders.holders(id, mode, holders), holders.length);
+                }
+                Transaction victim = deadlockDetector.waitFor(requestingTransaction, holders, count);
+                if (victim != null && verbose) {
+                    System.out.println("Deadlock on " + id + ", aborting " + (favorOldTransactions ? "younger" : "older") + " transaction " + victim);
+                }
+            }
+            granted = true;
+        } finally {
+            deadlockDetector.stopWaiting(requestingTransaction);
+            waitEnded(wait, space, id, requestingTransaction, mode, granted);
+        }
+    }
+
+    /*
+     * Wound-wait when favoring old transactions, wait-die otherwise. Conflicts
+     * are resolved when the request is made: under wound-wait an older requester
+     * aborts younger conflicting holders and a younger one waits; under wait-die
+     * an older requester waits and a younger one aborts itself. Waiters are
+     * granted in age order, so a waiting transaction only ever waits for older
+     * ones (wound-wait) or younger ones (wait-die) and no cycle can form.
+     */
+    private void acquireTimestampOrdered(final LockSpace space, final int id, Transaction requestingTransaction, final LockMode mode) throws InterruptedException {
+        if (!space.hasWaiters(id) && space.tryLock(id, mode)) {
+            return;
+        }
+        final LockEvents.Wait wait = waitStarted(id, requestingTransaction);
+        boolean granted = false;
+        final boolean woundWait = favorOldTransactions;
+        Transaction[] holders = new Transaction[8];
+        space.holders.addWaiter(id, requestingTransaction, mode);
+        try {
+            while (true) {
+                requestingTransaction.checkAbort();
+                long observed = space.state(id);
+                boolean olderWaiter = space.holders.hasOlderWaiter(id, requestingTransaction, mode);
+                if (!olderWaiter && space.tryLock(id, mode)) {
+                    granted = true;
+                    return;
+                }
+                if (!woundWait && olderWaiter) {
+                    throw new TransactionAbortedException(requestingTransaction);
+                }
+                int count = space.holders.holders(id, mode, holders);
+                if (count > holders.length) {
+                    holders = new Transaction[count];
+                    count = Math.min(space.holders.holders(id, mode, holders), holders.length);
+                }
+                for (int i = 0; i < count; i++) {
+                    Transaction holder = holders[i];
+                    if (holder == requestingTransaction) {
+                        continue;
+                    }
+                    boolean holderIsOlder = holder.getTimestamp() < requestingTransaction.getTimestamp();
+                    if (woundWait && !holderIsOlder) {
+                        holder.requestAbort();
+                    } else if (!woundWait && holderIsOlder) {
+                        throw new TransactionAbortedException(requestingTransaction);
                     }
                 }
-                System.out.println(requestingTransaction + " Waiting for read lock of tuple " + tid + " Deadlock?");
+                space.awaitChange(id, observed, DEADLOCK_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            space.holders.removeWaiter(id, requestingTransaction, mode);
+            if (!granted) {
+                space.retryAsync(id); // Queued requests may have been waiting behind this one
+            }
+            waitEnded(wait, space, id, requestingTransaction, mode, granted);
+        }
+    }
+
+    /**
+     * Asynchronous counterpart of getWriteLock. The future completes when the
+     * row is locked, or with a TransactionAbortedException if the request is
+     * refused; a waiting request is granted by the transaction that releases
+     * the row, so no thread is parked for it. Requests of one transaction may
+     * be outstanding together; the lock bookkeeping of the transaction is only
+     * up to date once they have all completed.
+     *
+     * Conflicts are resolved by wound-wait as in acquireTimestampOrdered, so
+     * these requests need the TIMESTAMP_ORDERED policy with favorOldTransactions.
+     */
+    public CompletableFuture<Void> acquireWrite(final int tid, Transaction requestingTransaction) {
+        return acquireRowAsync(tid, requestingTransaction, LockMode.IX, LockMode.X);
+    }
+
+    public CompletableFuture<Void> acquireRead(final int tid, Transaction requestingTransaction) {
+        return acquireRowAsync(tid, requestingTransaction, LockMode.IS, LockMode.S);
+    }
+
+    /**
+     * Requests write locks on all rows at once and returns when every one is
+     * granted. If any is refused, the transaction is aborted: its other
+     * requests are withdrawn and TransactionAbortedException is thrown once
+     * all have settled, so a rollback releases exactly what was granted.
+     */
+    public void writeLockAll(final int[] tids, Transaction requestingTransaction) {
+        lockAll(tids, requestingTransaction, LockMode.IX, LockMode.X);
+    }
+
+    public void readLockAll(final int[] tids, Transaction requestingTransaction) {
+        lockAll(tids, requestingTransaction, LockMode.IS, LockMode.S);
+    }
+
+    private void lockAll(final int[] tids, Transaction requestingTransaction, final LockMode intent, final LockMode rowMode) {
+        CompletableFuture<Void> grants = tableIntentionAsync(requestingTransaction, intent).thenCompose(v -> {
+            CompletableFuture<?>[] rows = new CompletableFuture<?>[tids.length];
+            for (int i = 0; i < tids.length; i++) {
+                rows[i] = acquireRowAsync(tids[i], requestingTransaction, intent, rowMode).whenComplete((granted, refused) -> {
+                    if (refused != null) {
+                        requestingTransaction.requestAbort();
+                    }
+                });
+            }
+            return CompletableFuture.allOf(rows);
+        });
+        try {
+            grants.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private CompletableFuture<Void> acquireRowAsync(final int tid, Transaction t, final LockMode intent, final LockMode rowMode) {
+        synchronized (t) {
+            if (t.holdsTableLockCovering(rowMode)) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        final int page = tid >>> PAGE_SHIFT;
+        return tableIntentionAsync(t, intent)
+                .thenCompose(v -> pageIntentionAsync(page, t, intent))
+                .thenCompose(v -> acquireAsync(rowLocks, tid, t, rowMode))
+                .thenRun(() -> {
+                    synchronized (t) {
+                        if (rowMode == LockMode.X) {
+                            t.writeLockGranted(tid);
+                        } else {
+                            t.readLockGranted(tid);
+                        }
+                    }
+                });
+    }
+
+    // Concurrent requests may both take the intention lock; each is recorded and released
+    private CompletableFuture<Void> tableIntentionAsync(Transaction t, final LockMode intent) {
+        synchronized (t) {
+            if (t.holdsTableLock(intent) || t.holdsTableLockCovering(intent)) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        return acquireAsync(tableLocks, TABLE, t, intent).thenRun(() -> {
+            synchronized (t) {
+                t.tableLockGranted(intent);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> pageIntentionAsync(final int page, Transaction t, final LockMode intent) {
+        synchronized (t) {
+            if (t.holdsPageLock(page, intent)) {
+                return CompletableFuture.completedFuture(null);
             }
-            setHolderTransaction(tid, requestingTransaction);
-            requestingTransaction.readLockGranted(tid);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
         }
+        return acquireAsync(pageLocks, page, t, intent).thenRun(() -> {
+            synchronized (t) {
+                t.pageLockGranted(page, intent);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> acquireAsync(final LockSpace space, final int id, Transaction requestingTransaction, final LockMode mode) {
+        if (deadlockPolicy != DeadlockPolicy.TIMESTAMP_ORDERED || !favorOldTransactions) {
+            throw new IllegalStateException("Asynchronous lock requests need the TIMESTAMP_ORDERED deadlock policy with favorOldTransactions");
+        }
+        if (requestingTransaction.isAbortRequested()) {
+            return CompletableFuture.failedFuture(new TransactionAbortedException(requestingTransaction));
+        }
+        if (!space.hasWaiters(id) && space.tryLock(id, mode)) {
+            space.holders.add(id, requestingTransaction, mode);
+            lockGranted(space, id, requestingTransaction, mode);
+            return CompletableFuture.completedFuture(null);
+        }
+        final LockEvents.Wait wait = waitStarted(id, requestingTransaction);
+        final LockSpace.AsyncRequest request = new LockSpace.AsyncRequest(requestingTransaction, mode);
+        final Runnable withdraw = () -> space.cancelAsync(id, request);
+        request.granted.whenComplete((v, refused) -> {
+            requestingTransaction.removeAbortListener(withdraw);
+            waitEnded(wait, space, id, requestingTransaction, mode, refused == null);
+            if (refused == null) {
+                lockGranted(space, id, requestingTransaction, mode);
+            }
+        });
+        space.lockAsync(id, request);
+        if (!request.granted.isDone()) {
+            requestingTransaction.addAbortListener(withdraw);
+            if (request.granted.isDone()) {
+                requestingTransaction.removeAbortListener(withdraw); // completed before the listener was there to remove
+            } else {
+                woundYoungerHolders(space, id, request);
+            }
+        }
+        return request.granted;
+    }
+
+    /*
+     * Wound-wait as in acquireTimestampOrdered, decided once when the request is
+     * queued: younger conflicting holders are asked to abort right away. Waiters
+     * are granted in age order, so no younger transaction can take the granule
+     * while the request waits and there is nothing to look at again later. The
+     * request is granted by the transaction that releases the granule, or
+     * withdrawn by requestAbort if the requester is wounded while it waits.
+     */
+    private void woundYoungerHolders(final LockSpace space, final int id, final LockSpace.AsyncRequest request) {
+        final Transaction requester = request.transaction;
+        Transaction[] holders = new Transaction[8];
+        int count = space.holders.holders(id, request.mode, holders);
+        if (count > holders.length) {
+            holders = new Transaction[count];
+            count = Math.min(space.holders.holders(id, request.mode, holders), holders.length);
+        }
+        for (int i = 0; i < count; i++) {
+            Transaction holder = holders[i];
+            if (holder != requester && holder.getTimestamp() > requester.getTimestamp()) {
+                holder.requestAbort();
+            }
+        }
+    }
+
+    /** Called when a transaction task has run to its end, with how long that took. */
+    protected void onTransactionEnd(Transaction t, final long nanos) {
+    }
+
+    /** Called once per lock request that cannot be granted right away. */
+    protected void onLockWait(final int id, Transaction requestingTransaction) {
+    }
+
+    // Every waitStarted is paired with a waitEnded, however the wait ends; the event is null while nobody records waits
+    private LockEvents.Wait waitStarted(final int id, Transaction requestingTransaction) {
+        onLockWait(id, requestingTransaction);
+        waiters.increment();
+        if (!LockEvents.WAIT.isEnabled()) {
+            return null;
+        }
+        LockEvents.Wait wait = new LockEvents.Wait();
+        wait.begin();
+        return wait;
+    }
+
+    private void waitEnded(final LockEvents.Wait wait, final LockSpace space, final int id, Transaction requestingTransaction, final LockMode mode, final boolean granted) {
+        waiters.decrement();
+        if (wait == null) {
+            return;
+        }
+        wait.end();
+        if (wait.shouldCommit()) {
+            wait.granule = granuleOf(space);
+            wait.id = id;
+            wait.mode = mode.name();
+            wait.transaction = requestingTransaction.getTimestamp();
+            wait.granted = granted;
+            wait.commit();
+        }
+    }
+
+    private void lockGranted(final LockSpace space, final int id, Transaction requestingTransaction, final LockMode mode) {
+        if (!LockEvents.GRANT.isEnabled()) {
+            return;
+        }
+        LockEvents.Grant grant = new LockEvents.Grant();
+        grant.granule = granuleOf(space);
+        grant.id = id;
+        grant.mode = mode.name();
+        grant.transaction = requestingTransaction.getTimestamp();
+        grant.commit();
+    }
+
+    private String granuleOf(final LockSpace space) {
+        return space == rowLocks ? "ROW" : space == pageLocks ? "PAGE" : space == rangeLocks ? "VALUE_RANGE" : "TABLE";
+    }
+
+    /** Row, page, value range and table locks held right now, for monitoring. */
+    long locksHeld() {
+        return rowLocks.holders.heldCount() + pageLocks.holders.heldCount() + rangeLocks.holders.heldCount() + tableLocks.holders.heldCount();
     }
 
     public boolean shouldAbort(Transaction requester, Transaction holder) {
@@ -176,64 +915,273 @@ public class AvoidDeadlockLockingTable {
                 requester.getTimestamp() > holder.getTimestamp();
     }
 
-    public void releaseWriteLock(final int tid) {
-        clearHolderTransaction(tid);
-        this.rowLocks[tid].release(numTasks);
+    public void releaseWriteLock(final int tid, Transaction holdingTransaction) {
+        if (holdingTransaction.writeLockReleased(tid)) {
+            rowLocks.holders.remove(tid, holdingTransaction, LockMode.X);
+            this.rowLocks.unlockWrite(tid);
+        }
+    }
+
+    public void releaseReadLock(final int tid, Transaction holdingTransaction) {
+        if (holdingTransaction.readLockReleased(tid)) {
+            rowLocks.holders.remove(tid, holdingTransaction, LockMode.S);
+            this.rowLocks.unlockRead(tid);
+        }
     }
 
-    public void releaseReadLock(final int tid) {
-        clearHolderTransaction(tid);
-        this.rowLocks[tid].release();
+    /**
+     * Releases every lock the transaction still holds, e.g. at commit or
+     * rollback, and frees its slot. No request of it may still be outstanding.
+     */
+    public void releaseAllLocks(Transaction holdingTransaction) {
+        releaseRowAndPageLocks(holdingTransaction);
+        releaseRangeLocks(holdingTransaction);
+        for (LockMode mode : holdingTransaction.myTableLocks()) {
+            tableLocks.holders.remove(TABLE, holdingTransaction, mode);
+            tableLocks.unlock(TABLE, mode);
+        }
+        holdingTransaction.myTableLocks().clear();
+        deadlockDetector.forget(holdingTransaction);
+        transactionSlots.release(holdingTransaction); // nothing refers to the slot any more
+    }
+
+    private void releaseRowAndPageLocks(Transaction holdingTransaction) {
+        for (int tid : holdingTransaction.myWriteLocks()) {
+            rowLocks.holders.remove(tid, holdingTransaction, LockMode.X);
+            this.rowLocks.unlockWrite(tid);
+        }
+        for (int tid : holdingTransaction.myReadLocks()) {
+            rowLocks.holders.remove(tid, holdingTransaction, LockMode.S);
+            this.rowLocks.unlockRead(tid);
+        }
+        for (int pageLock : holdingTransaction.myPageLocks()) {
+            int page = Transaction.pageOf(pageLock);
+            LockMode mode = Transaction.pageModeOf(pageLock);
+            pageLocks.holders.remove(page, holdingTransaction, mode);
+            pageLocks.unlock(page, mode);
+        }
+        holdingTransaction.myWriteLocks().clear();
+        holdingTransaction.myReadLocks().clear();
+        holdingTransaction.myPageLocks().clear();
     }
 
     public Transaction getHolderTransaction(int tid) {
-        return lockHolders.get(tid);
+        return rowLocks.holders.anyHolder(tid);
+    }
+
+    public double getValue(final int tid) {
+        return this.store.getValue(tid);
+    }
+
+    public int getModifiedBy(final int tid) {
+        return this.store.getModifiedBy(tid);
     }
 
-    public void setHolderTransaction(int tid, Transaction t) {
-        lockHolders.put(tid, t);
+    /** Writes the new value in place; the before image goes to the writer's undo log. */
+    public void update(final int tid, final int task, final double new_value, final UndoLog undo) {
+        final double oldValue = this.store.getValue(tid);
+        final int oldModifiedBy = this.store.getModifiedBy(tid);
+        if (wal != null) {
+            // Logged first, so that a checkpoint cannot copy a change the log does not know about
+            wal.logUpdate(task, tid, oldValue, oldModifiedBy, new_value, task);
+        }
+        undo.record(tid, oldValue, oldModifiedBy);
+        if (aggregates != null) {
+            aggregates.overwriting(tid, oldValue);
+        }
+        this.store.set(tid, new_value, task);
+        rowChanged(tid, oldValue);
+        payWriteCost();
     }
 
-    public void clearHolderTransaction(int tid) {
-        lockHolders.remove(tid);
+    /**
+     * Folds the rows, as they are now, into the aggregates as committed, in
+     * place of the before images handed in when they were overwritten. Writers
+     * call it once commit has returned, while they still hold the rows, so the
+     * totals never include a writer that has not committed; if the commit
+     * fails, the rollback restores the rows and the before images go away.
+     */
+    void commitAggregates(final int[] tids) {
+        if (aggregates == null) {
+            return;
+        }
+        for (int tid : tids) {
+            aggregates.commit(tid, store.getValue(tid));
+        }
     }
 
-    public double[] getTuple(final int tid) {
-        return this.tableData[tid];
+    /**
+     * Marks the writer committed. With a log the commit is first made durable,
+     * together with whatever other commits join the same flush.
+     */
+    public void commit(final int task, final AtomicBoolean comitted) {
+        LockEvents.Commit event = new LockEvents.Commit();
+        event.begin();
+        if (wal != null) {
+            wal.commit(task);
+        }
+        comitted.set(true);
+        if (wal != null) {
+            wal.retire(task);
+        }
+        committed(event, task);
     }
 
-    public double[] update(final int tid, final int task, final double new_value) {
-        double[] tuple = this.tableData[tid];
-        double[] beforeImage = new double[tuple.length];
-        System.arraycopy(tuple, 0, beforeImage, 0, tuple.length);
-        tuple[MODIFIED_BY] = task;
-        tuple[DATA_VALUE] = new_value;
+    private void committed(final LockEvents.Commit event, final int task) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.task = task;
+            event.logged = wal != null;
+            event.commit();
+        }
+    }
+
+    /** Rolls back an aborted execution of the transaction and counts the abort. */
+    void rollback(Transaction t) {
+        LockEvents.Rollback event = new LockEvents.Rollback();
+        event.begin();
+        t.rollback();
+        abortCount.incrementAndGet();
+        event.end();
+        if (event.shouldCommit()) {
+            event.transaction = t.getTimestamp();
+            event.type = String.valueOf(t.getType());
+            event.commit();
+        }
+    }
+
+    /** Records that the writer's updates since its last commit have been rolled back. */
+    void logAbort(final int task) {
+        if (wal != null) {
+            wal.abort(task);
+        }
+    }
+
+    void payWriteCost() {
+        if (ADDITIONAL_WRITE_COST <= 0) {
+            return;
+        }
         try {
             Thread.sleep(ADDITIONAL_WRITE_COST);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        return beforeImage;
     }
 
-    public void restoreOldTupleValues(double[] beforeImage, int tid) {
-        double[] tuple = this.tableData[tid];
-        System.arraycopy(beforeImage, 0, tuple, 0, tuple.length);
+    /**
+     * SNAPSHOT writers buffer their new values and publish them here, with a
+     * fresh commit timestamp, while still holding the row write locks.
+     */
+    public long commitSnapshot(final int[] tids, final double[] new_values, final int task, final AtomicBoolean comitted) {
+        LockEvents.Commit event = new LockEvents.Commit();
+        event.begin();
+        if (wal != null) {
+            for (int i = 0; i < tids.length; i++) {
+                wal.logUpdate(task, tids[i], store.getValue(tids[i]), store.getModifiedBy(tids[i]), new_values[i], task);
+            }
+            wal.commit(task);
+        }
+        final double[] oldValues = new double[tids.length];
+        for (int i = 0; i < tids.length; i++) {
+            oldValues[i] = store.getValue(tids[i]);
+            if (aggregates != null) {
+                aggregates.overwriting(tids[i], oldValues[i]);
+            }
+        }
+        long cts = this.versions.install(tids, new_values, task, comitted);
+        for (int i = 0; i < tids.length; i++) {
+            rowChanged(tids[i], oldValues[i]);
+        }
+        commitAggregates(tids);
+        if (wal != null) {
+            wal.retire(task);
+        }
+        committed(event, task);
+        return cts;
     }
 
-    public void getTableLock() {
-        this.table_lock.acquireUninterruptibly();
+    public int rowVersion(final int tid) {
+        return rowVersions.get(tid);
     }
 
-    public void releaseTableLock() {
-        this.table_lock.release();
+    /** Called after every change of a row's value, once the new value is in place. */
+    private void rowChanged(final int tid, final double oldValue) {
+        rowVersions.incrementAndGet(tid);
+        changedIn.set(tid, scanEpoch.get());
+        if (index != null) {
+            index.move(tid, oldValue, store.getValue(tid));
+        }
+    }
+
+    /** Whether the row changed after the scan that started in the given epoch did; robust to the epoch wrapping. */
+    boolean changedSince(final int tid, final int epoch) {
+        return changedIn.get(tid) - epoch >= 0;
     }
 
+    /**
+     * Validates and commits an optimistic writer. The write set is locked in
+     * tid order for this step only; if any row changed since the writer read
+     * its version, nothing is written and false is returned. Otherwise the
+     * buffered values are logged, installed and committed under the locks,
+     * which the writer releases afterwards as usual.
+     */
+    public boolean commitOptimistic(final int[] tids, final int[] readVersions, final double[] new_values,
+                                    Transaction t, final int task, final AtomicBoolean comitted) {
+        lockWriteSet(tids, t);
+        for (int i = 0; i < tids.length; i++) {
+            if (rowVersions.get(tids[i]) != readVersions[i]) {
+                validationFailures.incrementAndGet();
+                return false;
+            }
+        }
+        for (int i = 0; i < tids.length; i++) {
+            lockValueMove(tids[i], new_values[i], t);
+        }
+        t.checkAbort(); // A wounded writer must not commit
+        for (int i = 0; i < tids.length; i++) {
+            final int tid = tids[i];
+            final double oldValue = store.getValue(tid);
+            if (wal != null) {
+                wal.logUpdate(task, tid, oldValue, store.getModifiedBy(tid), new_values[i], task);
+            }
+            if (aggregates != null) {
+                aggregates.overwriting(tid, oldValue);
+            }
+            store.set(tid, new_values[i], task);
+            rowChanged(tid, oldValue);
+        }
+        commit(task, comitted);
+        commitAggregates(tids);
+        return true;
+    }
+
+    public long beginSnapshot(Transaction t) {
+        return this.versions.beginSnapshot(t);
+    }
+
+    public void endSnapshot(Transaction t) {
+        this.versions.endSnapshot(t);
+    }
+
+    void readSnapshot(final int tid, final long startTs, final VersionStore.Cursor cursor) {
+        this.versions.read(tid, startTs, cursor);
+    }
+
+    public void restoreOldTupleValues(final int tid, final double value, final int modified_by) {
+        final double oldValue = this.store.getValue(tid);
+        this.store.set(tid, value, modified_by);
+        if (aggregates != null) {
+            aggregates.restored(tid, value);
+        }
+        rowChanged(tid, oldValue);
+    }
+
+
     public static void main(String[] args) {
         int isolation_level = REPEATABLE_READ;
         AvoidDeadlockLockingTable.numTasks = 10;
 
-        System.out.println("=== Testing " + (favorOldTransactions ? "Favor Old" : "Favor Younger") + " Transactions ===");
+        System.out.println("=== Testing " + (favorOldTransactions ? "Favor Old" : "Favor Younger") + " Transactions, " + deadlockPolicy + " ===");
         AvoidDeadlockLockingTable b = new AvoidDeadlockLockingTable(isolation_level);
         b.run();
     }
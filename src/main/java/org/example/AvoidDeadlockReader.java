@@ -1,7 +1,6 @@
 package org.example;
 
-import java.util.ArrayList;
-import java.util.Random;
+import java.lang.foreign.MemorySegment;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class AvoidDeadlockReader extends Transaction {
@@ -9,32 +8,43 @@ public class AvoidDeadlockReader extends Transaction {
     private final AtomicInteger writeCount; // Strategy flag
     private final boolean favorOld; // Strategy flag
     public boolean displayErrors = false;
-    final double[] repeatbale_read_checking;
+    final RepeatableReadCheck repeatable_read_check; // checksums of both scan passes, a few KB whatever the table size
     long start, stop, last_stop;
     int numExecutions = 0;
-    ArrayList<UncommittedReads> un_commited = new ArrayList<UncommittedReads>();
-    ArrayList<NonRepeatableReads> non_repeatable = new ArrayList<NonRepeatableReads>();
+    private int abortedAttempts = 0;
+    final ReadAnomalies anomalies = new ReadAnomalies();
 
     final AvoidDeadlockLockingTable table;
     private final int[] selectedTuples; // For multi-point queries
-
-    public AvoidDeadlockReader(AvoidDeadlockLockingTable t,boolean favorOld,AtomicInteger writeCount){
+    private static final int SCAN_BLOCK = 4096; // Rows filtered by one scan kernel call; one page, so never split between check segments
+    private final VersionStore.Cursor cursor = new VersionStore.Cursor(); // For SNAPSHOT reads
+    private int rangeRows; // Rows found by the last range pass
+    final PartitionAggregates.Totals totals = new PartitionAggregates.Totals(); // Answer of the last aggregate read
+    private final PartitionAggregates.Totals firstTotals = new PartitionAggregates.Totals();
+
+    public AvoidDeadlockReader(AvoidDeadlockLockingTable t,TransactionType type,boolean favorOld,AtomicInteger writeCount){
+        super(type, t.newStream());
         this.table = t;
         this.writeCount = writeCount;
         this.favorOld = favorOld;
-        this.repeatbale_read_checking = new double[table.numTuples];
+        this.repeatable_read_check = new RepeatableReadCheck(t);
 //        this.selectedTuples = new int[AvoidDeadlockLockingTable.numQueriesPerTask];
-        this.selectedTuples = new int[2];
+        this.selectedTuples = new int[AvoidDeadlockLockingTable.workload.pointReadSize];
         if (this.type == TransactionType.MULTI_POINT_READ) {
             selectRandomTuples();
         }
+        if (this.type == TransactionType.RANGE_READ && table.index == null) {
+            throw new IllegalStateException("Range reads need the value index");
+        }
+        if (this.type == TransactionType.AGGREGATE_READ && table.aggregates == null) {
+            throw new IllegalStateException("Aggregate reads need the partition aggregates");
+        }
     }
 
 
     private void selectRandomTuples() {
-        Random rand = new Random();
         for (int i = 0; i < selectedTuples.length; i++) {
-            selectedTuples[i] = rand.nextInt(table.numTuples);
+            selectedTuples[i] = table.keys.next(random);
         }
     }
 
@@ -43,38 +53,83 @@ public class AvoidDeadlockReader extends Transaction {
         start = System.currentTimeMillis();
         last_stop = start;
         while (table.tasksFinished.get() !=  writeCount.get()) {
-            if (type == TransactionType.MULTI_POINT_READ) {
-                executeMultiPointRead();
-            } else if (type == TransactionType.FULL_SCAN_READ) {
-                executeFullScanRead();
+            begin_of_transaction();
+            try {
+                if (table.scheduler != null) {
+                    executeScheduled();
+                } else if (type == TransactionType.MULTI_POINT_READ) {
+                    executeMultiPointRead();
+                } else if (type == TransactionType.FULL_SCAN_READ) {
+                    executeFullScanRead();
+                } else if (type == TransactionType.RANGE_READ) {
+                    executeRangeRead();
+                } else if (type == TransactionType.AGGREGATE_READ) {
+                    executeAggregateRead();
+                }
+            } catch (TransactionAbortedException e) {
+                table.rollback(this);
+                backoff(++abortedAttempts);
+                continue;
             }
+            abortedAttempts = 0;
+            renewTimestamp();
 
             stop = System.currentTimeMillis();
             //printStatistics();
+            // Readers never block on their own; on virtual threads they must give the carrier back to writers
+            Thread.yield();
+        }
+    }
+
+    // Run by the scheduler once no earlier writer of the rows read is left, and later ones wait for it, so nothing is locked
+    private void executeScheduled() {
+        if (type == TransactionType.MULTI_POINT_READ) {
+            table.scheduler.executeRead(this, selectedTuples, this::readSelectedTuples);
+        } else if (type == TransactionType.FULL_SCAN_READ) {
+            table.scheduler.executeTableRead(this, this::read);
+        } else if (type == TransactionType.RANGE_READ) {
+            // Which rows are in the range is only known while reading, so the range declares the whole table
+            final double width = AvoidDeadlockLockingTable.workload.rangeReadWidth * table.maxValue;
+            final double lo = random.nextDouble() * (table.maxValue - width);
+            table.scheduler.executeTableRead(this, () -> readRange(lo, lo + width, false));
+        } else if (type == TransactionType.AGGREGATE_READ) {
+            table.scheduler.executeTableRead(this, this::readAggregates);
         }
     }
 
     private void executeMultiPointRead() {
         if (table.isolationLevel == AvoidDeadlockLockingTable.USE_TABLE_LOCKS) {
-            table.getTableLock();
-            readSelectedTuples();
-            table.releaseTableLock();
+            table.lockTable(this, LockMode.S);
+            try {
+                readSelectedTuples();
+            } finally {
+                table.releaseAllLocks(this);
+            }
         } else if (table.isolationLevel == AvoidDeadlockLockingTable.REPEATABLE_READ) {
             readSelectedTuplesRepeatable();
+        } else if (table.isolationLevel == AvoidDeadlockLockingTable.READ_COMMITED) {
+            readSelectedTuplesCommitted();
+        } else if (table.isolationLevel == AvoidDeadlockLockingTable.SNAPSHOT) {
+            readSelectedTuplesSnapshot();
         } else {
             readSelectedTuples();
         }
     }
 
-    private void executeFullScanRead() {
+    void executeFullScanRead() {
         if (table.isolationLevel == AvoidDeadlockLockingTable.USE_TABLE_LOCKS) {
-            table.getTableLock();
-            read();
-            table.releaseTableLock();
+            table.lockTable(this, LockMode.S);
+            try {
+                read();
+            } finally {
+                table.releaseAllLocks(this);
+            }
         } else if (table.isolationLevel == AvoidDeadlockLockingTable.REPEATABLE_READ) {
             read_repeatable();
         } else if (table.isolationLevel == AvoidDeadlockLockingTable.READ_COMMITED) {
             read_commited();
+        } else if (table.isolationLevel == AvoidDeadlockLockingTable.SNAPSHOT) {
+            read_snapshot();
         } else {
             read();
         }
@@ -82,26 +137,200 @@ public class AvoidDeadlockReader extends Transaction {
 
     private void readSelectedTuples() {
         for (int tid : selectedTuples) {
-            check_query_1(tid);
-            check_query_2(tid);
+            check_point(tid);
+        }
+    }
+
+    // Short read locks, as in read_commited: each row is locked only while it is read
+    private void readSelectedTuplesCommitted() {
+        try {
+            for (int tid : selectedTuples) {
+                table.getReadLock(tid, this, favorOld);
+                check_point(tid);
+                table.releaseReadLock(tid, this);
+            }
+        } finally {
+            table.releaseAllLocks(this);
         }
     }
 
     private void readSelectedTuplesRepeatable() {
         // Acquire locks for selected tuples
-        for (int tid : selectedTuples) {
-            table.getReadLock(tid, this, favorOld);
+        if (AvoidDeadlockLockingTable.pipelinedLocks) {
+            table.readLockAll(selectedTuples, this);
+        } else {
+            table.lockReadSet(selectedTuples, this);
         }
 
         try {
             for (int tid : selectedTuples) {
-                check_query_1(tid);
-                check_query_2(tid);
+                check_point(tid);
             }
         } finally {
+            table.releaseAllLocks(this);
+        }
+    }
+
+    private void readSelectedTuplesSnapshot() {
+        long startTs = table.beginSnapshot(this);
+        try {
             for (int tid : selectedTuples) {
-                table.releaseReadLock(tid);
+                table.readSnapshot(tid, startTs, cursor);
+                final double first = cursor.value;
+                check_committed(tid, cursor.modifiedBy, anomalies);
+                table.readSnapshot(tid, startTs, cursor);
+                check_point(tid, first, cursor.value, cursor.modifiedBy);
+            }
+        } finally {
+            table.endSnapshot(this);
+        }
+    }
+
+    void executeRangeRead() {
+        final double width = AvoidDeadlockLockingTable.workload.rangeReadWidth * table.maxValue;
+        final double lo = random.nextDouble() * (table.maxValue - width);
+        final double hi = lo + width;
+        if (table.isolationLevel == AvoidDeadlockLockingTable.USE_TABLE_LOCKS) {
+            table.lockTable(this, LockMode.S);
+            try {
+                readRange(lo, hi, false);
+            } finally {
+                table.releaseAllLocks(this);
             }
+        } else if (table.isolationLevel == AvoidDeadlockLockingTable.REPEATABLE_READ) {
+            // The value range locks keep writers out of [lo, hi], so the rows themselves need no locks
+            table.lockValueRange(lo, hi, this);
+            try {
+                readRange(lo, hi, false);
+            } finally {
+                table.releaseAllLocks(this);
+            }
+        } else if (table.isolationLevel == AvoidDeadlockLockingTable.READ_COMMITED) {
+            try {
+                readRange(lo, hi, true);
+            } finally {
+                table.releaseAllLocks(this);
+            }
+        } else if (table.isolationLevel == AvoidDeadlockLockingTable.SNAPSHOT) {
+            readRangeSnapshot(lo, hi);
+        } else {
+            readRange(lo, hi, false);
+        }
+    }
+
+    // Two passes over the index; if the second finds other rows or values than the first, that is a phantom
+    private void readRange(final double lo, final double hi, final boolean lockRows) {
+        final long first = rangePass(lo, hi, lockRows);
+        final int firstRows = rangeRows;
+        if (rangePass(lo, hi, lockRows) != first || rangeRows != firstRows) {
+            if(displayErrors) System.err.println("Found phantom in value range ["+lo+", "+hi+"]");
+            anomalies.phantom();
+        }
+    }
+
+    private long rangePass(final double lo, final double hi, final boolean lockRows) {
+        long sum = 0;
+        int rows = 0;
+        for (ValueIndex.Entry entry : table.index.range(lo, hi)) {
+            final int tid = entry.tid();
+            if (lockRows) {
+                table.getReadLock(tid, this, favorOld);
+            }
+            final double value = table.getValue(tid);
+            final int modified_by = table.getModifiedBy(tid);
+            if (lockRows) {
+                table.releaseReadLock(tid, this);
+            }
+            if (value < lo || value > hi) {
+                continue; // moved out of the range since the entry was read
+            }
+            check_committed(tid, modified_by, anomalies);
+            sum += RepeatableReadCheck.term(tid, value);
+            rows++;
+        }
+        rangeRows = rows;
+        return sum;
+    }
+
+    // The index only has the newest values, so a snapshot filters its own version of every row
+    private void readRangeSnapshot(final double lo, final double hi) {
+        long startTs = table.beginSnapshot(this);
+        try {
+            final long first = rangePassSnapshot(lo, hi, startTs);
+            final int firstRows = rangeRows;
+            if (rangePassSnapshot(lo, hi, startTs) != first || rangeRows != firstRows) {
+                if(displayErrors) System.err.println("Found phantom in value range ["+lo+", "+hi+"]");
+                anomalies.phantom();
+            }
+        } finally {
+            table.endSnapshot(this);
+        }
+    }
+
+    private long rangePassSnapshot(final double lo, final double hi, final long startTs) {
+        long sum = 0;
+        int rows = 0;
+        for (int tid = 0; tid < table.numTuples; tid++) {
+            table.readSnapshot(tid, startTs, cursor);
+            if (cursor.value >= lo && cursor.value <= hi) {
+                check_committed(tid, cursor.modifiedBy, anomalies);
+                sum += RepeatableReadCheck.term(tid, cursor.value);
+                rows++;
+            }
+        }
+        rangeRows = rows;
+        return sum;
+    }
+
+    void executeAggregateRead() {
+        if (table.isolationLevel == AvoidDeadlockLockingTable.USE_TABLE_LOCKS
+                || table.isolationLevel == AvoidDeadlockLockingTable.REPEATABLE_READ) {
+            // As for the scan, the table S lock keeps writers out, so all partitions add up to one committed state
+            table.lockTable(this, LockMode.S);
+            try {
+                readAggregates();
+            } finally {
+                table.releaseAllLocks(this);
+            }
+        } else if (table.isolationLevel == AvoidDeadlockLockingTable.SNAPSHOT) {
+            readAggregatesSnapshot();
+        } else {
+            // The aggregates only hold committed values; each partition is read as of one commit
+            readAggregates();
+        }
+    }
+
+    // Two passes over the partitions; totals that differ mean a writer committed in between
+    private void readAggregates() {
+        table.aggregates.total(firstTotals);
+        table.aggregates.total(totals);
+        if (!totals.sameAs(firstTotals)) {
+            if(displayErrors) System.err.println("Aggregates changed between reads: "+firstTotals+" then "+totals);
+            anomalies.phantom();
+        }
+    }
+
+    // The aggregates only have the newest committed values, so a snapshot adds up its own versions:
+    // a scan with one version lookup per row rather than one step per partition
+    private void readAggregatesSnapshot() {
+        long startTs = table.beginSnapshot(this);
+        try {
+            aggregateSnapshot(startTs, firstTotals);
+            aggregateSnapshot(startTs, totals);
+            if (!totals.sameAs(firstTotals)) {
+                if(displayErrors) System.err.println("Aggregates changed between reads: "+firstTotals+" then "+totals);
+                anomalies.phantom();
+            }
+        } finally {
+            table.endSnapshot(this);
+        }
+    }
+
+    private void aggregateSnapshot(final long startTs, final PartitionAggregates.Totals into) {
+        into.clear();
+        for (int tid = 0; tid < table.numTuples; tid++) {
+            table.readSnapshot(tid, startTs, cursor);
+            into.add(cursor.value);
         }
     }
 
@@ -114,18 +343,31 @@ public class AvoidDeadlockReader extends Transaction {
     }
 
     private void printAnomalies() {
-        if (!un_commited.isEmpty()) {
+        if (anomalies.uncommitted() > 0) {
             if (table.isolationLevel <= AvoidDeadlockLockingTable.READ_UN_COMMITED)
-                System.out.println("Found un_commited data " + this.un_commited.size() + " [OK for this level]");
+                System.out.println("Found un_commited data " + anomalies.uncommitted() + " [OK for this level]");
+            else
+                System.err.println("Found un_commited data " + anomalies.uncommitted());
+        }
+        if (anomalies.nonRepeatable() > 0) {
+            if (table.isolationLevel < AvoidDeadlockLockingTable.REPEATABLE_READ)
+                System.out.println("Found non_repeatable reads " + anomalies.nonRepeatable() + " [OK for this level]");
+            else
+                System.err.println("Found non_repeatable reads " + anomalies.nonRepeatable());
+        }
+        if (anomalies.phantoms() > 0) {
+            if (table.isolationLevel < AvoidDeadlockLockingTable.REPEATABLE_READ)
+                System.out.println("Found phantoms " + anomalies.phantoms() + " [OK for this level]");
             else
-                System.err.println("Found un_commited data " + this.un_commited.size());
+                System.err.println("Found phantoms " + anomalies.phantoms());
         }
-        if (!non_repeatable.isEmpty()) {
+        if (anomalies.unattributed() > 0) {
             if (table.isolationLevel < AvoidDeadlockLockingTable.REPEATABLE_READ)
-                System.out.println("Found non_repeatable reads " + this.non_repeatable.size() + " [OK for this level]");
+                System.out.println("Found changed scan segments without a changed row " + anomalies.unattributed() + " [OK for this level]");
             else
-                System.err.println("Found non_repeatable reads " + this.non_repeatable.size());
+                System.err.println("Found changed scan segments without a changed row " + anomalies.unattributed());
         }
+        anomalies.printSamples();
     }
 
 //Old Code
@@ -171,110 +413,163 @@ public class AvoidDeadlockReader extends Transaction {
 //    }
 
     void read_commited() {
-        //first full-table scan
-        for(int tid=0;tid<table.numTuples;tid++) {
-            table.getReadLock(tid, this,favorOld);
-            check_query_1(tid);
-            table.releaseReadLock(tid);
+        if (AvoidDeadlockLockingTable.parallelScans) {
+            // Each partition holds a page S lock only while it is being scanned
+            table.lockTable(this, LockMode.IS);
+            try {
+                scanInParallel(LockMode.S);
+            } finally {
+                table.releaseAllLocks(this);
+            }
+            return;
         }
+        try {
+            //first full-table scan
+            repeatable_read_check.begin();
+            for(int tid=0;tid<table.numTuples;tid++) {
+                table.getReadLock(tid, this,favorOld);
+                check_query_1(tid);
+                table.releaseReadLock(tid, this);
+            }
 
-        //second full-table scan
-        for(int tid=0;tid<table.numTuples;tid++) {
-            table.getReadLock(tid, this,favorOld);
-            check_query_2(tid);
-            table.releaseReadLock(tid);
+            //second full-table scan
+            for(int tid=0;tid<table.numTuples;tid++) {
+                table.getReadLock(tid, this,favorOld);
+                check_query_2(tid);
+                table.releaseReadLock(tid, this);
+            }
+            repeatable_read_check.verify(anomalies, numExecutions, displayErrors);
+        } finally {
+            // Drops the table and page intention locks
+            table.releaseAllLocks(this);
         }
     }
 
 void read_repeatable() {
-        // Acquire read locks for all tuples at the start
-        for (int tid = 0; tid < table.numTuples; tid++) {
-            table.getReadLock(tid, this,favorOld);
+        // One table S lock covers every row; taking a lock per row would fill the lock table
+        table.lockTable(this, LockMode.S);
+
+        try {
+            if (AvoidDeadlockLockingTable.parallelScans) {
+                scanInParallel(null);
+                return;
+            }
+            // Both full-table scans; no row can change under the table lock
+            scanTwice();
+        } finally {
+            // Release all read locks after both scans are complete
+            table.releaseAllLocks(this);
         }
+    }
 
+    // Both scans run against the same start timestamp and take no locks.
+    void read_snapshot() {
+        long startTs = table.beginSnapshot(this);
         try {
-            // First full-table scan
-            for (int tid = 0; tid < table.numTuples; tid++) {
-                check_query_1(tid);
+            //first full-table scan
+            repeatable_read_check.begin();
+            for(int tid=0;tid<table.numTuples;tid++) {
+                table.readSnapshot(tid, startTs, cursor);
+                check_query_1(tid, cursor.value, cursor.modifiedBy, anomalies);
             }
 
-            // Second full-table scan
-            for (int tid = 0; tid < table.numTuples; tid++) {
-                check_query_2(tid);
+            //second full-table scan
+            for(int tid=0;tid<table.numTuples;tid++) {
+                table.readSnapshot(tid, startTs, cursor);
+                check_query_2(tid, cursor.value, cursor.modifiedBy, anomalies);
             }
+            repeatable_read_check.verify(anomalies, numExecutions, displayErrors);
         } finally {
-            // Release all read locks after both scans are complete
-            for (int tid = 0; tid < table.numTuples; tid++) {
-                table.releaseReadLock(tid);
-            }
+            table.endSnapshot(this);
         }
     }
 
+    // Both passes over the fork/join pool; the second one starts after the first has joined.
+    private void scanInParallel(final LockMode partitionLock) {
+        repeatable_read_check.begin();
+        for (int pass = 1; pass <= 2; pass++) {
+            anomalies.add(ParallelScan.scan(this, pass, partitionLock));
+        }
+        repeatable_read_check.verify(anomalies, numExecutions, displayErrors);
+    }
+
     void check_query_1(final int tid) {
-        double[] tuple = table.getTuple(tid);
+        check_query_1(tid, table.getValue(tid), table.getModifiedBy(tid), anomalies);
+    }
 
-        double check = tuple[AvoidDeadlockLockingTable.DATA_VALUE];
-        repeatbale_read_checking[tid] = check;
-        int modified_by = (int) tuple[AvoidDeadlockLockingTable.MODIFIED_BY];
-        if(modified_by != AvoidDeadlockLockingTable.NOT_MODIFIED) {
-            if(!table.myWriter[modified_by].comitted.get()) {
-                if(displayErrors) System.err.println("Seeing non comitted values of task "+modified_by +" at "+tid);
-                this.un_commited.add(new UncommittedReads(numExecutions, tid, modified_by));
-            }
-        }
+    private void check_query_1(final int tid, final double check, final int modified_by, final ReadAnomalies found) {
+        repeatable_read_check.add(1, tid, check);
+        check_committed(tid, modified_by, found);
     }
 
     private void check_query_2(final int tid) {
-        double[] tuple = table.getTuple(tid);
+        check_query_2(tid, table.getValue(tid), table.getModifiedBy(tid), anomalies);
+    }
+
+    private void check_query_2(final int tid, final double check, final int modified_by, final ReadAnomalies found) {
+        repeatable_read_check.add(2, tid, check);
+        check_committed(tid, modified_by, found);
+    }
 
-        double check = tuple[AvoidDeadlockLockingTable.DATA_VALUE];
-        if(check != repeatbale_read_checking[tid]){
-            if(displayErrors) System.err.println("Found non-repeatable read at "+tid+ " issued by "+ tuple[AvoidDeadlockLockingTable.MODIFIED_BY]);
-            this.non_repeatable.add(new NonRepeatableReads(numExecutions, tid));
+    // A single row read twice in a row; the first value is all there is to remember
+    private void check_point(final int tid) {
+        final double first = table.getValue(tid);
+        check_committed(tid, table.getModifiedBy(tid), anomalies);
+        check_point(tid, first, table.getValue(tid), table.getModifiedBy(tid));
+    }
+
+    private void check_point(final int tid, final double first, final double check, final int modified_by) {
+        if(check != first){
+            if(displayErrors) System.err.println("Found non-repeatable read at "+tid+ " issued by "+ modified_by);
+            anomalies.nonRepeatable(numExecutions, tid);
         }
-        int modified_by = (int) tuple[AvoidDeadlockLockingTable.MODIFIED_BY];
+        check_committed(tid, modified_by, anomalies);
+    }
+
+    private void check_committed(final int tid, final int modified_by, final ReadAnomalies found) {
         if(modified_by != AvoidDeadlockLockingTable.NOT_MODIFIED) {
             if(!table.myWriter[modified_by].comitted.get()) {
                 if(displayErrors) System.err.println("Seeing non comitted values of task "+modified_by +" at "+tid);
-                this.un_commited.add(new UncommittedReads(numExecutions, tid, modified_by));
+                found.uncommitted(numExecutions, tid, modified_by);
             }
         }
     }
 
     private void read() {
-        //first full-table scan
-        for(int tid=0;tid<table.numTuples;tid++) {
-            check_query_1(tid);
-        }
-
-        //second full-table scan
-        for(int tid=0;tid<table.numTuples;tid++) {
-            check_query_2(tid);
+        if (AvoidDeadlockLockingTable.parallelScans) {
+            scanInParallel(null);
+            return;
         }
+        scanTwice();
     }
 
-    class UncommittedReads{
-        final int num_executions, tid, modified_by;
+    private void scanTwice() {
+        repeatable_read_check.begin();
+        //first full-table scan
+        scanRange(0, table.numTuples, 1, anomalies);
 
-        public UncommittedReads(int num_executions, int tid, int modified_by) {
-            this.tid = tid;
-            this.num_executions = num_executions;
-            this.modified_by = modified_by;
-        }
-        public String toString() {
-            return "Seeing non comitted values of task \"+modified_by +\" at \"+tid";
-        }
+        //second full-table scan
+        scanRange(0, table.numTuples, 2, anomalies);
+        repeatable_read_check.verify(anomalies, numExecutions, displayErrors);
     }
 
-    class NonRepeatableReads{
-        final int num_executions, tid;
-
-        public NonRepeatableReads(int num_executions, int tid) {
-            this.tid = tid;
-            this.num_executions = num_executions;
-        }
-        public String toString() {
-            return "Found non-repeatable read at "+tid;
+    /**
+     * One scan pass over [from, to) without taking row locks. The scan kernels
+     * pick out the rows that were modified, which are checked for uncommitted
+     * data one by one, and checksum every block for repeatable_read_check.
+     */
+    void scanRange(final int from, final int to, final int pass, final ReadAnomalies found) {
+        final MemorySegment values = table.store.values();
+        final MemorySegment modifiedBy = table.store.modifiedBy();
+        final int[] candidates = new int[Math.min(SCAN_BLOCK, to - from)];
+        for (int block = from; block < to; block += SCAN_BLOCK) {
+            final int end = Math.min(to, block + SCAN_BLOCK);
+            repeatable_read_check.add(pass, block, ScanKernels.INSTANCE.checksum(values, block, end));
+            int count = ScanKernels.INSTANCE.modified(modifiedBy, block, end, candidates);
+            for (int i = 0; i < count; i++) {
+                int tid = candidates[i];
+                check_committed(tid, table.getModifiedBy(tid), found);
+            }
         }
     }
 
@@ -283,9 +578,7 @@ void read_repeatable() {
         if(!myWriteLocks.isEmpty()) {
             System.err.println("rollback(): Readers should not holds write locks");
         }
-        for(int tid_locked : myReadLocks) {
-            this.table.releaseReadLock(tid_locked);
-        }
+        this.table.releaseAllLocks(this);
         return true;
     }
 
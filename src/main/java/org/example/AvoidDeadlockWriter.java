@@ -1,6 +1,5 @@
 package org.example;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -11,63 +10,112 @@ public class AvoidDeadlockWriter extends Transaction {
     final int[] ids_to_update;
     final public AtomicBoolean comitted = new AtomicBoolean(false);
     final AvoidDeadlockLockingTable table;
-    final ArrayList<double[]> beforeImages= new ArrayList<double[]>();
+    final UndoLog undoLog;
 
     public AvoidDeadlockWriter(int id, AvoidDeadlockLockingTable t, boolean favorOld){
+        super(TransactionType.WRITE, t.newStream());
         this.task  = id;
         this.table = t;
         this.favorOld = favorOld; // Set strategy
-        this.ids_to_update = new int[AvoidDeadlockLockingTable.numQueriesPerTask];
-        getTuplesForUpdate();
+        this.ids_to_update = t.keys.distinct(random, AvoidDeadlockLockingTable.workload.writeSetSize);
+        this.undoLog = new UndoLog(ids_to_update.length);
     }
 
-    private void getTuplesForUpdate() {
-        for(int q=0;q<ids_to_update.length;q++) {
-            int id;
-            while(contains((id = table.rand.nextInt(table.numTuples)),this.ids_to_update));
-            ids_to_update[q] = id;
-        }
-    }
-
-    private boolean contains(int id, int[] array) {
-        for(int v : array ) {
-            if(v==id) {
-                return true;
-            }
-        }
-        return false;
+    // A new execution starts with an empty undo log; what the last one updated is committed or rolled back
+    @Override
+    public boolean begin_of_transaction() {
+        undoLog.clear();
+        return super.begin_of_transaction();
     }
 
     void update_repeatable_read() {
-        for(int tid : ids_to_update) {
-            table.getWriteLock(tid, this,favorOld);
-            double new_value = table.rand.nextDouble()*table.maxValue;//some hopefully different value
-            double[] beforeImage = table.update(tid,task,new_value);
-            beforeImages.add(beforeImage); // Save the before image
+        if (AvoidDeadlockLockingTable.optimisticWriters) {
+            update_optimistic();
+            return;
+        }
+        if (AvoidDeadlockLockingTable.pipelinedLocks) {
+            update_pipelined();
+            return;
         }
-        comitted.set(true);	// Needs to done before the locks are released
+        table.lockWriteSet(ids_to_update, this);	// In tid order, so no deadlock handling
         for(int tid : ids_to_update) {
-            table.releaseWriteLock(tid);
+            double new_value = random.nextDouble()*table.maxValue;//some hopefully different value
+            table.lockValueMove(tid, new_value, this);	// Keeps the row out of ranges being read; through the deadlock policy
+            table.update(tid,task,new_value,undoLog);
         }
+        checkAbort();	// A wounded writer must not commit
+        table.commit(task, comitted);	// Needs to done before the locks are released
+        table.commitAggregates(ids_to_update);
+        table.releaseAllLocks(this);
     }
 
     void update_read_commited() {
+        if (AvoidDeadlockLockingTable.optimisticWriters) {
+            update_optimistic();
+            return;
+        }
+        if (AvoidDeadlockLockingTable.pipelinedLocks) {
+            update_pipelined();
+            return;
+        }
+        table.lockWriteSet(ids_to_update, this);	// In tid order, so no deadlock handling
         for(int tid : ids_to_update) {
-            table.getWriteLock(tid, this,favorOld);
-            double new_value = table.rand.nextDouble()*table.maxValue;//some hopefully different value
-            double[] beforeImage = table.update(tid,task,new_value);
-            beforeImages.add(beforeImage); // Save the before image
+            double new_value = random.nextDouble()*table.maxValue;//some hopefully different value
+            table.update(tid,task,new_value,undoLog);
+        }
+        checkAbort();	// A wounded writer must not commit
+        table.commit(task, comitted);	// Needs to done before first lock is released
+        table.commitAggregates(ids_to_update);
+        table.releaseAllLocks(this);
+    }
+
+    // Nothing is locked while the new values are made; the rows are validated and written at commit
+    void update_optimistic() {
+        int[] versions = new int[ids_to_update.length];
+        double[] new_values = new double[ids_to_update.length];
+        for(int i=0;i<ids_to_update.length;i++) {
+            versions[i] = table.rowVersion(ids_to_update[i]);
+            new_values[i] = random.nextDouble()*table.maxValue;//some hopefully different value
+            table.payWriteCost();
+        }
+        if (!table.commitOptimistic(ids_to_update, versions, new_values, this, task, comitted)) {
+            throw new TransactionAbortedException(this);	// Retried like any other abort
         }
-        comitted.set(true);	// Needs to done before first lock is released
+        table.releaseAllLocks(this);
+    }
+
+    // All write locks are requested at once and granted as their holders release; one wait instead of one per row.
+    void update_pipelined() {
+        table.writeLockAll(ids_to_update, this);
         for(int tid : ids_to_update) {
-            table.releaseWriteLock(tid);
+            checkAbort();	// No lock request left to notice a wound
+            double new_value = random.nextDouble()*table.maxValue;//some hopefully different value
+            table.lockValueMove(tid, new_value, this);
+            table.update(tid,task,new_value,undoLog);
+        }
+        checkAbort();	// A wounded writer must not commit
+        table.commit(task, comitted);
+        table.commitAggregates(ids_to_update);
+        table.releaseAllLocks(this);
+    }
+
+    // New values stay private until commit, when they are installed as new versions.
+    void update_snapshot() {
+        double[] new_values = new double[ids_to_update.length];
+        table.lockWriteSet(ids_to_update, this);
+        for(int i=0;i<ids_to_update.length;i++) {
+            new_values[i] = random.nextDouble()*table.maxValue;//some hopefully different value
+            table.payWriteCost();
         }
+        checkAbort();	// A wounded writer must not commit
+        table.commitSnapshot(ids_to_update, new_values, task, comitted);
+        table.releaseAllLocks(this);
     }
 
     private void update() {
         for(int tid : ids_to_update) {
-            double new_value = table.rand.nextDouble()*table.maxValue;//some hopefully different value
-            table.update(tid,task,new_value);
+            double new_value = random.nextDouble()*table.maxValue;//some hopefully different value
+            table.update(tid,task,new_value,undoLog);
         }
     }
 
@@ -77,51 +125,70 @@ public class AvoidDeadlockWriter extends Transaction {
 
     @Override
     public boolean rollback() {
-        for(int i=0;i<this.myWriteLocks.size();i++) {
-            //XXX assumes that index i belongs to the same tuple
-            int tid = this.myWriteLocks.get(i);
-            if (i < this.beforeImages.size()) {
-                double[] beforeImage = this.beforeImages.get(i);
-                this.table.restoreOldTupleValues(beforeImage, tid);
-            } else {
-                System.err.println("Warning: Missing beforeImage for tid " + tid);
-            }
-            this.table.releaseWriteLock(tid);
-        }
-        if(!this.myReadLocks.isEmpty()) {
-            for(int tid : myReadLocks) {
-                this.table.releaseReadLock(tid);
-            }
-        }
+        // SNAPSHOT and optimistic writers buffer their values until commit, so their log stays empty
+        this.undoLog.undo(table);
+        this.table.logAbort(task);
+        this.table.releaseAllLocks(this);
         return true;
     }
 
-    @Override
-    public void run() {
-        super.run();
-
-        // Only proceed with updates if this is a write transaction
-        if (this.type != TransactionType.WRITE) {
-            System.out.println("Task " + task + " is not a write transaction, skipping updates");
-            table.tasksFinished.incrementAndGet();
-            return;
-        }
-
-        if (table.isolationLevel == AvoidDeadlockLockingTable.USE_TABLE_LOCKS) {
-            table.getTableLock();
+    // The scheduler starts the writer once every earlier transaction on its rows is done, so it locks nothing
+    void update_scheduled() {
+        table.scheduler.executeWrite(this, ids_to_update, () -> {
             update();
-            comitted.set(true);
-            table.releaseTableLock();
+            table.commit(task, comitted);
+            table.commitAggregates(ids_to_update);
+        });
+    }
+
+    void execute() {
+        if (table.scheduler != null) {
+            update_scheduled();
+        } else if (table.isolationLevel == AvoidDeadlockLockingTable.USE_TABLE_LOCKS) {
+            table.lockTable(this, LockMode.X);
+            try {
+                update();
+                table.commit(task, comitted);
+                table.commitAggregates(ids_to_update);
+            } finally {
+                table.releaseAllLocks(this);
+            }
         } else if (table.isolationLevel == AvoidDeadlockLockingTable.REPEATABLE_READ) {
             update_repeatable_read();
         } else if (table.isolationLevel == AvoidDeadlockLockingTable.READ_COMMITED) {
             update_read_commited();
         } else if (table.isolationLevel == AvoidDeadlockLockingTable.READ_UN_COMMITED) {
             update();
-            comitted.set(true);
+            table.commit(task, comitted);
+            table.commitAggregates(ids_to_update);
+        } else if (table.isolationLevel == AvoidDeadlockLockingTable.SNAPSHOT) {
+            update_snapshot();
+        }
+    }
+
+    // Aborted executions are rolled back and re-run with the original timestamp
+    void executeWithRestarts() {
+        for (int attempt = 1; ; attempt++) {
+            begin_of_transaction();
+            try {
+                execute();
+                return;
+            } catch (TransactionAbortedException e) {
+                table.rollback(this);
+                backoff(attempt);
+            }
         }
+    }
 
-        System.out.println("Done task " + task + ". I am finisher number " + table.tasksFinished.incrementAndGet());
+    @Override
+    public void run() {
+        super.run();
+        executeWithRestarts();
+
+        final int finisher = table.tasksFinished.incrementAndGet();
+        if (AvoidDeadlockLockingTable.verbose) {
+            System.out.println("Done task " + task + ". I am finisher number " + finisher);
+        }
     }
 
 
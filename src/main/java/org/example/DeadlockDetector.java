@@ -0,0 +1,114 @@
+package org.example;
+
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jgrapht.Graph;
+import org.jgrapht.alg.cycle.CycleDetector;
+import org.jgrapht.graph.DefaultDirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+/**
+ * Wait-for graph of blocked transactions. An edge T1 -> T2 means T1 waits for
+ * a lock held by T2. The graph is checked for a cycle through the waiter
+ * whenever its outgoing edges change, so a deadlock is found as soon as the
+ * last transaction of the cycle blocks.
+ */
+final class DeadlockDetector {
+    private final Graph<Transaction, DefaultEdge> waitsFor = new DefaultDirectedGraph<>(DefaultEdge.class);
+    private final CycleDetector<Transaction, DefaultEdge> cycles = new CycleDetector<>(waitsFor);
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Records that the waiter is blocked behind the given holders. If this closes
+     * a cycle, a victim is picked by the favorOldTransactions policy, asked to
+     * abort and returned; otherwise returns null.
+     */
+    Transaction waitFor(final Transaction waiter, final Transaction[] holders, final int count) {
+        lock.lock();
+        try {
+            waitsFor.addVertex(waiter);
+            if (!replaceEdges(waiter, holders, count)) {
+                return null;
+            }
+            Set<Transaction> cycle = cycles.findCyclesContainingVertex(waiter);
+            if (cycle.isEmpty()) {
+                return null;
+            }
+            Transaction victim = chooseVictim(cycle);
+            victim.requestAbort();
+            waitsFor.removeVertex(victim);
+            return victim;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The waiter got its lock or gave up; it no longer waits for anybody. */
+    void stopWaiting(final Transaction waiter) {
+        lock.lock();
+        try {
+            if (waitsFor.containsVertex(waiter)) {
+                waitsFor.removeAllEdges(Set.copyOf(waitsFor.outgoingEdgesOf(waiter)));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The transaction committed or rolled back; nobody waits for it any more. */
+    void forget(final Transaction t) {
+        lock.lock();
+        try {
+            waitsFor.removeVertex(t);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns true if the set of transactions the waiter waits for has changed. */
+    private boolean replaceEdges(final Transaction waiter, final Transaction[] holders, final int count) {
+        Set<DefaultEdge> current = waitsFor.outgoingEdgesOf(waiter);
+        boolean same = current.size() <= count;
+        for (int i = 0; i < count && same; i++) {
+            same = holders[i] == waiter || waitsFor.containsEdge(waiter, holders[i]);
+        }
+        if (same && current.size() == distinctHolders(waiter, holders, count)) {
+            return false;
+        }
+        waitsFor.removeAllEdges(Set.copyOf(current));
+        for (int i = 0; i < count; i++) {
+            if (holders[i] != waiter) {
+                waitsFor.addVertex(holders[i]);
+                waitsFor.addEdge(waiter, holders[i]);
+            }
+        }
+        return true;
+    }
+
+    private static int distinctHolders(final Transaction waiter, final Transaction[] holders, final int count) {
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            boolean seen = holders[i] == waiter;
+            for (int j = 0; j < i && !seen; j++) {
+                seen = holders[j] == holders[i];
+            }
+            if (!seen) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    private static Transaction chooseVictim(final Set<Transaction> cycle) {
+        Transaction victim = null;
+        for (Transaction t : cycle) {
+            if (victim == null || (AvoidDeadlockLockingTable.favorOldTransactions ?
+                    t.getTimestamp() > victim.getTimestamp() :
+                    t.getTimestamp() < victim.getTimestamp())) {
+                victim = t;
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,236 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs transactions in an order fixed before they start, in the style of
+ * Calvin, instead of letting them lock rows. Writers declare the rows they
+ * update and multi-point readers the rows they read; scans, range and
+ * aggregate reads declare the whole table.
+ *
+ * A sequencer thread closes an epoch every epochMicros: what was submitted
+ * since the last one is ordered by transaction timestamp and appended to a
+ * dependency graph. A transaction waits for every earlier one it conflicts
+ * with, i.e. that writes a row it reads or writes, or reads a row it writes,
+ * and runs on its own thread as soon as none of those is left. Transactions
+ * that do not conflict run in parallel, and the outcome is the same as
+ * running the whole sequence one by one in that order. Nobody waits for a
+ * later transaction, so nothing can deadlock and nothing is ever aborted.
+ *
+ * The graph only keeps what is still running: the last writer and the
+ * readers since of every row in use, and the running writers and whole-table
+ * readers.
+ */
+final class DeterministicScheduler {
+    private final long epochMicros;
+    private final ConcurrentLinkedQueue<Node> submitted = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock(); // not synchronized, which would pin virtual threads
+    private final HashMap<Integer, Row> rows = new HashMap<>();
+    private final HashSet<Node> runningWriters = new HashSet<>();
+    private final HashSet<Node> runningTableReaders = new HashSet<>();
+    private ScheduledExecutorService sequencer;
+    final AtomicLong epochs = new AtomicLong();
+    final AtomicLong scheduled = new AtomicLong();
+
+    private static final class Node {
+        final Transaction transaction;
+        final int[] reads; // null for none or, with wholeTable, for every row
+        final int[] writes; // null for none
+        final boolean wholeTable;
+        final ArrayList<Node> successors = new ArrayList<>();
+        final CountDownLatch runnable = new CountDownLatch(1);
+        int waitingFor; // earlier conflicting transactions still running
+
+        Node(final Transaction transaction, final int[] reads, final int[] writes, final boolean wholeTable) {
+            this.transaction = transaction;
+            this.reads = reads;
+            this.writes = writes;
+            this.wholeTable = wholeTable;
+        }
+    }
+
+    private static final class Row {
+        Node writer;
+        final ArrayList<Node> readers = new ArrayList<>(2);
+    }
+
+    DeterministicScheduler(final long epochMicros) {
+        this.epochMicros = epochMicros;
+    }
+
+    void start() {
+        sequencer = Executors.newSingleThreadScheduledExecutor();
+        sequencer.scheduleAtFixedRate(this::closeEpoch, epochMicros, epochMicros, TimeUnit.MICROSECONDS);
+    }
+
+    /** Stops the sequencer; call it once nothing is submitted any more. */
+    void stop() {
+        sequencer.shutdownNow();
+    }
+
+    /** Runs the body once no earlier transaction updating any of the tids is left. */
+    void executeRead(final Transaction t, final int[] tids, final Runnable body) {
+        execute(new Node(t, tids, null, false), body);
+    }
+
+    /** Runs the body once no earlier transaction reading or updating any of the tids is left. */
+    void executeWrite(final Transaction t, final int[] tids, final Runnable body) {
+        execute(new Node(t, null, tids, false), body);
+    }
+
+    /** Runs the body once no earlier writer is left. */
+    void executeTableRead(final Transaction t, final Runnable body) {
+        execute(new Node(t, null, null, true), body);
+    }
+
+    private void execute(final Node node, final Runnable body) {
+        submitted.add(node);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                node.runnable.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // Leaving the sequence would leave the later transactions waiting
+            }
+        }
+        try {
+            body.run();
+        } finally {
+            completed(node);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void closeEpoch() {
+        final ArrayList<Node> epoch = new ArrayList<>();
+        for (Node n; (n = submitted.poll()) != null; ) {
+            epoch.add(n);
+        }
+        if (epoch.isEmpty()) {
+            return;
+        }
+        // Arrival order within the epoch is up to the threads; the timestamps are not
+        epoch.sort(Comparator.comparingLong(n -> n.transaction.getTimestamp()));
+        final ArrayList<Node> ready = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Node n : epoch) {
+                append(n);
+                if (n.waitingFor == 0) {
+                    ready.add(n);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        epochs.incrementAndGet();
+        scheduled.addAndGet(epoch.size());
+        for (Node n : ready) {
+            n.runnable.countDown();
+        }
+    }
+
+    private void append(final Node n) {
+        if (n.wholeTable) {
+            for (Node w : runningWriters) {
+                dependsOn(n, w);
+            }
+            runningTableReaders.add(n);
+        }
+        if (n.reads != null) {
+            for (int tid : n.reads) {
+                final Row row = rows.computeIfAbsent(tid, k -> new Row());
+                if (row.writer != null) {
+                    dependsOn(n, row.writer);
+                }
+                if (row.readers.isEmpty() || row.readers.get(row.readers.size() - 1) != n) {
+                    row.readers.add(n); // once, however often n reads the row
+                }
+            }
+        }
+        if (n.writes != null) {
+            for (Node s : runningTableReaders) {
+                dependsOn(n, s);
+            }
+            for (int tid : n.writes) {
+                final Row row = rows.computeIfAbsent(tid, k -> new Row());
+                if (row.writer != null) {
+                    dependsOn(n, row.writer);
+                }
+                for (Node r : row.readers) {
+                    dependsOn(n, r);
+                }
+                row.readers.clear(); // Whoever comes later waits for n, and n for them
+                row.writer = n;
+            }
+            runningWriters.add(n);
+        }
+    }
+
+    private static void dependsOn(final Node later, final Node earlier) {
+        // The edges of a node are all added while it is appended, so a repeated one is the last
+        final ArrayList<Node> s = earlier.successors;
+        if (s.isEmpty() || s.get(s.size() - 1) != later) {
+            s.add(later);
+            later.waitingFor++;
+        }
+    }
+
+    private void completed(final Node n) {
+        final ArrayList<Node> ready = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Node s : n.successors) {
+                if (--s.waitingFor == 0) {
+                    ready.add(s);
+                }
+            }
+            if (n.reads != null) {
+                for (int tid : n.reads) {
+                    final Row row = rows.get(tid);
+                    if (row != null) {
+                        row.readers.remove(n);
+                        forgetIfUnused(tid, row);
+                    }
+                }
+            }
+            if (n.writes != null) {
+                for (int tid : n.writes) {
+                    final Row row = rows.get(tid);
+                    if (row != null && row.writer == n) {
+                        row.writer = null;
+                        forgetIfUnused(tid, row);
+                    }
+                }
+                runningWriters.remove(n);
+            }
+            if (n.wholeTable) {
+                runningTableReaders.remove(n);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Node s : ready) {
+            s.runnable.countDown();
+        }
+    }
+
+    private void forgetIfUnused(final int tid, final Row row) {
+        if (row.writer == null && row.readers.isEmpty()) {
+            rows.remove(tid);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A transaction of a PartitionedLockingTable, and the coordinator of its own
+ * branches: it sends each partition it touches the requests for that
+ * partition's branch and waits for the replies.
+ *
+ * A writer whose rows are all in one partition takes the fast path, one
+ * request that locks, writes and commits there. Any other writer first locks
+ * its partitions one after another in ascending order, then commits them
+ * with two-phase commit: all branches write and vote in parallel, and commit
+ * if every vote is yes, or roll back otherwise and start over. Readers lock
+ * in the same order and keep their locks until every partition has been read,
+ * except at READ_COMMITED, where each partition is read on its own, in
+ * parallel. Like AvoidDeadlockReader, readers keep reading until every writer
+ * is done.
+ */
+final class DistributedTransaction extends Transaction {
+    final PartitionedLockingTable table;
+    final int task;
+    final PartitionBranch[] branches; // in ascending partition order
+    final PartitionAggregates.Totals totals = new PartitionAggregates.Totals(); // Answer of the last scan
+    int executions;
+
+    DistributedTransaction(final int task, final TransactionType type, final PartitionedLockingTable table) {
+        super(type, table.newStream());
+        this.table = table;
+        this.task = task;
+        if (type == TransactionType.WRITE) {
+            this.branches = table.branches(type, task, table.keys.distinct(random, AvoidDeadlockLockingTable.workload.writeSetSize));
+        } else if (type == TransactionType.MULTI_POINT_READ) {
+            final int[] tids = new int[AvoidDeadlockLockingTable.workload.pointReadSize];
+            for (int i = 0; i < tids.length; i++) {
+                tids[i] = table.keys.next(random);
+            }
+            this.branches = table.branches(type, task, tids);
+        } else {
+            this.branches = table.branches(type, task, null);
+        }
+    }
+
+    @Override
+    public void run() {
+        super.run();
+        if (type == TransactionType.WRITE) {
+            executeWithRestarts();
+            table.writersFinished.incrementAndGet();
+        } else {
+            while (table.writersFinished.get() != table.writeCount.get()) {
+                executeWithRestarts();
+                // Younger again, so writers waiting for the next gap between scans wound them instead
+                renewTimestamp();
+                for (PartitionBranch b : branches) {
+                    b.renewTimestamp();
+                }
+                Thread.yield();
+            }
+        }
+    }
+
+    private void executeWithRestarts() {
+        for (int attempt = 1; ; attempt++) {
+            begin_of_transaction();
+            if (execute()) {
+                executions++;
+                return;
+            }
+            table.abortCount.incrementAndGet();
+            backoff(attempt);
+        }
+    }
+
+    /** One execution; false if it was aborted, by then rolled back on every partition. */
+    private boolean execute() {
+        return switch (type) {
+            case WRITE -> write();
+            case MULTI_POINT_READ -> read();
+            case FULL_SCAN_READ, AGGREGATE_READ -> scan(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            case RANGE_READ -> {
+                final double width = AvoidDeadlockLockingTable.workload.rangeReadWidth * table.maxValue;
+                final double lo = random.nextDouble() * (table.maxValue - width);
+                yield scan(lo, lo + width);
+            }
+        };
+    }
+
+    private boolean write() {
+        for (PartitionBranch b : branches) {
+            for (int i = 0; i < b.values.length; i++) {
+                b.values[i] = random.nextDouble() * table.maxValue;//some hopefully different value
+            }
+        }
+        if (branches.length == 1) {
+            final PartitionBranch b = branches[0];
+            if (!table.transport.call(b.partition.id, p -> p.commitOnePhase(b)).join()) {
+                return false;
+            }
+            table.onePhaseCommits.increment();
+            return true;
+        }
+        for (int i = 0; i < branches.length; i++) {
+            final PartitionBranch b = branches[i];
+            if (!table.transport.call(b.partition.id, p -> p.lock(b)).join()) {
+                endAll(i, false);
+                return false;
+            }
+        }
+        // Phase one
+        final ArrayList<CompletableFuture<Boolean>> votes = new ArrayList<>(branches.length);
+        for (PartitionBranch b : branches) {
+            votes.add(table.transport.call(b.partition.id, p -> p.prepare(b)));
+        }
+        boolean commit = true;
+        final boolean[] yes = new boolean[branches.length];
+        for (int i = 0; i < branches.length; i++) {
+            yes[i] = votes.get(i).join();
+            commit &= yes[i];
+        }
+        // Phase two; a branch that voted no has rolled itself back already
+        final CompletableFuture<?>[] acks = new CompletableFuture<?>[branches.length];
+        for (int i = 0; i < branches.length; i++) {
+            final PartitionBranch b = branches[i];
+            acks[i] = commit ? table.transport.send(b.partition.id, p -> p.commit(b))
+                    : yes[i] ? table.transport.send(b.partition.id, p -> p.abort(b))
+                    : CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture.allOf(acks).join();
+        if (commit) {
+            table.twoPhaseCommits.increment();
+        }
+        return commit;
+    }
+
+    private boolean read() {
+        final boolean hold = branches.length > 1;
+        if (!hold || table.isolationLevel == AvoidDeadlockLockingTable.READ_COMMITED) {
+            final ArrayList<CompletableFuture<Boolean>> reads = new ArrayList<>(branches.length);
+            for (PartitionBranch b : branches) {
+                reads.add(table.transport.call(b.partition.id, p -> p.read(b, false)));
+            }
+            boolean all = true;
+            for (CompletableFuture<Boolean> r : reads) {
+                all &= r.join();
+            }
+            return all;
+        }
+        for (int i = 0; i < branches.length; i++) {
+            final PartitionBranch b = branches[i];
+            if (!table.transport.call(b.partition.id, p -> p.read(b, true)).join()) {
+                endAll(i, true);
+                return false;
+            }
+        }
+        endAll(branches.length, true);
+        return true;
+    }
+
+    private boolean scan(final double lo, final double hi) {
+        totals.clear();
+        final boolean hold = branches.length > 1;
+        if (!hold || table.isolationLevel == AvoidDeadlockLockingTable.READ_COMMITED) {
+            final ArrayList<CompletableFuture<PartitionAggregates.Totals>> scans = new ArrayList<>(branches.length);
+            for (PartitionBranch b : branches) {
+                scans.add(table.transport.call(b.partition.id, p -> p.scan(b, lo, hi, false)));
+            }
+            boolean all = true;
+            for (CompletableFuture<PartitionAggregates.Totals> s : scans) {
+                final PartitionAggregates.Totals part = s.join();
+                if (part == null) {
+                    all = false;
+                } else {
+                    totals.add(part);
+                }
+            }
+            return all;
+        }
+        for (int i = 0; i < branches.length; i++) {
+            final PartitionBranch b = branches[i];
+            final PartitionAggregates.Totals part = table.transport.call(b.partition.id, p -> p.scan(b, lo, hi, true)).join();
+            if (part == null) {
+                endAll(i, true);
+                return false;
+            }
+            totals.add(part);
+        }
+        endAll(branches.length, true);
+        return true;
+    }
+
+    /** Releases (readers) or rolls back (writers) the first n branches, in parallel. */
+    private void endAll(final int n, final boolean release) {
+        final CompletableFuture<?>[] acks = new CompletableFuture<?>[n];
+        for (int i = 0; i < n; i++) {
+            final PartitionBranch b = branches[i];
+            acks[i] = release ? table.transport.send(b.partition.id, p -> p.release(b))
+                    : table.transport.send(b.partition.id, p -> p.abort(b));
+        }
+        CompletableFuture.allOf(acks).join();
+    }
+
+    // Branches hold the locks, so there is nothing of the coordinator's own to undo
+    @Override
+    public boolean rollback() {
+        return true;
+    }
+
+    public String toString() {
+        return "Task " + task + " on " + branches.length + " partitions";
+    }
+}
@@ -0,0 +1,89 @@
+package org.example;
+
+/**
+ * Multi-granularity locks on pages or on the whole table. The lock word of a
+ * granule counts its holders per mode: 20 bits each for IS, IX and S, and one
+ * bit each for SIX and X.
+ */
+final class GranuleLockManager extends LockSpace {
+    private static final int[] SHIFT = new int[LockMode.VALUES.length];
+    private static final long[] MASK = new long[LockMode.VALUES.length];
+
+    static {
+        SHIFT[LockMode.IS.ordinal()] = 0;
+        SHIFT[LockMode.IX.ordinal()] = 20;
+        SHIFT[LockMode.S.ordinal()] = 40;
+        SHIFT[LockMode.SIX.ordinal()] = 60;
+        SHIFT[LockMode.X.ordinal()] = 61;
+        for (LockMode m : LockMode.VALUES) {
+            long width = (m == LockMode.SIX || m == LockMode.X) ? 1 : (1L << 20) - 1;
+            MASK[m.ordinal()] = width << SHIFT[m.ordinal()];
+        }
+    }
+
+    GranuleLockManager(final int numGranules, final TransactionSlots slots) {
+        super(numGranules, slots);
+    }
+
+    @Override
+    boolean tryLock(final int id, final LockMode mode) {
+        long s;
+        while (admits(s = state.get(id), mode)) {
+            if (state.compareAndSet(id, s, s + unit(mode))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Atomically trades one held lock for a stronger one, e.g. IX for X when a
+     * transaction escalates. Fails instead of waiting if other holders conflict.
+     */
+    boolean tryConvert(final int id, final LockMode from, final LockMode to) {
+        long s;
+        while (count(s = state.get(id), from) > 0) {
+            long without = s - unit(from);
+            if (!admits(without, to)) {
+                return false;
+            }
+            if (state.compareAndSet(id, s, without + unit(to))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    void unlock(final int id, final LockMode mode) {
+        long s, n;
+        do {
+            s = state.get(id);
+            if (count(s, mode) == 0) {
+                return;
+            }
+            n = (s - unit(mode)) & ~WAITERS;
+        } while (!state.compareAndSet(id, s, n));
+        if ((s & WAITERS) != 0) {
+            signal(id);
+        }
+    }
+
+    @Override
+    protected boolean admits(final long s, final LockMode mode) {
+        for (LockMode held : LockMode.VALUES) {
+            if (count(s, held) > 0 && !held.compatibleWith(mode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long count(final long s, final LockMode mode) {
+        return (s & MASK[mode.ordinal()]) >>> SHIFT[mode.ordinal()];
+    }
+
+    private static long unit(final LockMode mode) {
+        return 1L << SHIFT[mode.ordinal()];
+    }
+}
@@ -0,0 +1,81 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram in nanoseconds with log-linear buckets, as in
+ * HdrHistogram: values below 128 get a bucket each, above that every power of
+ * two is split into 64 buckets. Any value is thus kept within 1/64 (1.6%) of
+ * its true size in a fixed array of buckets, and recording is one increment.
+ *
+ * Histograms are merged by adding bucket counts, so writers can record into
+ * separate histograms that are only combined for a report.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT >>> 1;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * HALF_COUNT + HALF_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(final long nanos) {
+        counts.getAndIncrement(indexOf(Math.max(0, nanos)));
+    }
+
+    /** Adds the counts of the other histogram to this one. */
+    void add(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.getAndAdd(i, c);
+            }
+        }
+    }
+
+    long count() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+
+    /** The smallest recorded value that at least the given fraction of all values do not exceed. */
+    long percentile(final double fraction) {
+        final long rank = Math.max(1, (long) Math.ceil(fraction * count()));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highestValueAt(i);
+            }
+        }
+        return 0;
+    }
+
+    long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return highestValueAt(i);
+            }
+        }
+        return 0;
+    }
+
+    static int indexOf(final long value) {
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value | (SUB_COUNT - 1));
+        final int shift = magnitude - (SUB_BITS - 1);
+        final int sub = (int) (value >>> shift);
+        return shift == 0 ? sub : shift * HALF_COUNT + sub;
+    }
+
+    private static long highestValueAt(final int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        final int shift = index / HALF_COUNT - 1;
+        final long sub = index - shift * HALF_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
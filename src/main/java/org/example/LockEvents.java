@@ -0,0 +1,102 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder events of the lock manager, for looking at a running table
+ * without a debugger or console output. Record with e.g.
+ * {@code -XX:StartFlightRecording:filename=locks.jfr} and open the file in
+ * JDK Mission Control or with {@code jfr print --events org.example.LockWait}.
+ *
+ * Transactions are identified by their timestamp, commits by the writer's
+ * task number, as in the log. Grants happen for every locked row, so they are
+ * off unless enabled in the recording settings; waits, rollbacks and commits
+ * are on.
+ */
+final class LockEvents {
+    /** Let the wait and grant paths skip building an event while nobody records them. */
+    static final EventType WAIT = EventType.getEventType(Wait.class);
+    static final EventType GRANT = EventType.getEventType(Grant.class);
+
+    private LockEvents() {
+    }
+
+    @Name("org.example.LockWait")
+    @Label("Lock Wait")
+    @Category({"Task5", "Locks"})
+    @Description("A lock request that could not be granted right away, from the request until it was granted or refused")
+    @StackTrace(false)
+    static final class Wait extends Event {
+        @Label("Granule")
+        @Description("ROW, PAGE, VALUE_RANGE or TABLE")
+        String granule;
+
+        @Label("Id")
+        @Description("Row tid, page number or value range index")
+        int id;
+
+        @Label("Mode")
+        String mode;
+
+        @Label("Transaction")
+        long transaction;
+
+        @Label("Granted")
+        boolean granted;
+    }
+
+    @Name("org.example.LockGrant")
+    @Label("Lock Grant")
+    @Category({"Task5", "Locks"})
+    @Description("A lock was granted, right away or after a wait")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Grant extends Event {
+        @Label("Granule")
+        @Description("ROW, PAGE, VALUE_RANGE or TABLE")
+        String granule;
+
+        @Label("Id")
+        @Description("Row tid, page number or value range index")
+        int id;
+
+        @Label("Mode")
+        String mode;
+
+        @Label("Transaction")
+        long transaction;
+    }
+
+    @Name("org.example.Rollback")
+    @Label("Rollback")
+    @Category({"Task5", "Transactions"})
+    @Description("An aborted execution was rolled back; it is restarted with the same timestamp")
+    @StackTrace(false)
+    static final class Rollback extends Event {
+        @Label("Transaction")
+        long transaction;
+
+        @Label("Type")
+        String type;
+    }
+
+    @Name("org.example.Commit")
+    @Label("Commit")
+    @Category({"Task5", "Transactions"})
+    @Description("A writer committed; with a log this includes waiting for the flush")
+    @StackTrace(false)
+    static final class Commit extends Event {
+        @Label("Task")
+        int task;
+
+        @Label("Logged")
+        boolean logged;
+    }
+}
@@ -0,0 +1,204 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Records which transactions hold a lock on which row, including every
+ * concurrent reader, and which transactions are queued for it. Each row points to an intrusive list of holder nodes;
+ * nodes live in primitive arrays owned by a stripe and are recycled through a
+ * free list, so adding or removing a holder does not allocate once the pools
+ * have grown to the working set.
+ *
+ * Transactions are referenced by a small integer slot from TransactionSlots.
+ */
+final class LockHolderTable {
+    private static final int NONE = 0;
+    private static final int MODE_BITS = 3;
+    private static final int MODE_MASK = (1 << MODE_BITS) - 1;
+
+    private final int[] head;
+    private final int[] waitHead;
+    private final int stripeMask;
+    private final Stripe[] stripes;
+    private final TransactionSlots slots;
+    private final LongAdder held = new LongAdder();
+
+    LockHolderTable(final int numTuples, final TransactionSlots slots) {
+        this.slots = slots;
+        this.head = new int[numTuples];
+        this.waitHead = new int[numTuples];
+        int numStripes = Math.min(4096, Integer.highestOneBit(Math.max(1, numTuples - 1)) << 1);
+        this.stripeMask = numStripes - 1;
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    void add(final int tid, final Transaction t, final LockMode mode) {
+        push(head, tid, t, mode);
+        held.increment();
+    }
+
+    /** Removes the holder entry of the given transaction and mode from the row. */
+    void remove(final int tid, final Transaction t, final LockMode mode) {
+        if (unlink(head, tid, t, mode)) {
+            held.decrement();
+        }
+    }
+
+    /** Holder entries over all rows; exact only while nobody locks or unlocks. */
+    long heldCount() {
+        return held.sum();
+    }
+
+    void addWaiter(final int tid, final Transaction t, final LockMode mode) {
+        push(waitHead, tid, t, mode);
+    }
+
+    void removeWaiter(final int tid, final Transaction t, final LockMode mode) {
+        unlink(waitHead, tid, t, mode);
+    }
+
+    /**
+     * Returns true if an older transaction is queued for the row in a mode that
+     * conflicts with the request. Readers only queue behind older writers.
+     */
+    boolean hasOlderWaiter(final int tid, final Transaction t, final LockMode mode) {
+        final Stripe stripe = stripes[tid & stripeMask];
+        stripe.lock();
+        try {
+            final Transaction[] transactions = slots.bySlot;
+            for (int node = waitHead[tid]; node != NONE; node = stripe.next[node]) {
+                int waiter = stripe.holder[node];
+                Transaction other = transactions[waiter >>> MODE_BITS];
+                if (other != t && !mode.compatibleWith(LockMode.VALUES[waiter & MODE_MASK])
+                        && other.getTimestamp() < t.getTimestamp()) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private void push(final int[] heads, final int tid, final Transaction t, final LockMode mode) {
+        final int holder = (slotOf(t) << MODE_BITS) | mode.ordinal();
+        final Stripe stripe = stripes[tid & stripeMask];
+        stripe.lock();
+        try {
+            int node = stripe.allocate();
+            stripe.holder[node] = holder;
+            stripe.next[node] = heads[tid];
+            heads[tid] = node;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private boolean unlink(final int[] heads, final int tid, final Transaction t, final LockMode mode) {
+        if (t.holderSlot < 0) {
+            return false; // holds nothing, and must not take a slot for that
+        }
+        final int holder = (slotOf(t) << MODE_BITS) | mode.ordinal();
+        final Stripe stripe = stripes[tid & stripeMask];
+        stripe.lock();
+        try {
+            int prev = NONE;
+            for (int node = heads[tid]; node != NONE; node = stripe.next[node]) {
+                if (stripe.holder[node] == holder) {
+                    if (prev == NONE) {
+                        heads[tid] = stripe.next[node];
+                    } else {
+                        stripe.next[prev] = stripe.next[node];
+                    }
+                    stripe.release(node);
+                    return true;
+                }
+                prev = node;
+            }
+            return false;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Copies the current holders of the row that conflict with the given mode
+     * into the buffer and returns how many there are. Only as many as fit are
+     * copied. Passing null counts every holder.
+     */
+    int holders(final int tid, final LockMode mode, final Transaction[] buffer) {
+        final Stripe stripe = stripes[tid & stripeMask];
+        int count = 0;
+        stripe.lock();
+        try {
+            final Transaction[] transactions = slots.bySlot;
+            for (int node = head[tid]; node != NONE; node = stripe.next[node]) {
+                int holder = stripe.holder[node];
+                if (mode != null && mode.compatibleWith(LockMode.VALUES[holder & MODE_MASK])) {
+                    continue;
+                }
+                if (count < buffer.length) {
+                    buffer[count] = transactions[holder >>> MODE_BITS];
+                }
+                count++;
+            }
+        } finally {
+            stripe.unlock();
+        }
+        return count;
+    }
+
+    /** Returns the writer holding the row, or any reader if there is no writer. */
+    Transaction anyHolder(final int tid) {
+        final Stripe stripe = stripes[tid & stripeMask];
+        stripe.lock();
+        try {
+            final Transaction[] transactions = slots.bySlot;
+            int found = -1;
+            for (int node = head[tid]; node != NONE; node = stripe.next[node]) {
+                found = stripe.holder[node];
+                if ((found & MODE_MASK) == LockMode.X.ordinal()) {
+                    break;
+                }
+            }
+            return found < 0 ? null : transactions[found >>> MODE_BITS];
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private int slotOf(final Transaction t) {
+        return slots.slotOf(t);
+    }
+
+    private static final class Stripe extends ReentrantLock {
+        int[] holder = new int[16];
+        int[] next = new int[16];
+        int used = 0;
+        int free = NONE;
+
+        int allocate() {
+            if (free != NONE) {
+                int node = free;
+                free = next[node];
+                return node;
+            }
+            int node = ++used;
+            if (node == holder.length) {
+                holder = Arrays.copyOf(holder, holder.length * 2);
+                next = Arrays.copyOf(next, next.length * 2);
+            }
+            return node;
+        }
+
+        void release(final int node) {
+            next[node] = free;
+            free = node;
+        }
+    }
+}
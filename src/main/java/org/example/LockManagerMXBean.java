@@ -0,0 +1,23 @@
+package org.example;
+
+/**
+ * Live counters of a running table, registered with the platform MBean server
+ * as {@code org.example:type=LockManager,...} while the table runs, e.g. for
+ * JConsole or VisualVM.
+ */
+public interface LockManagerMXBean {
+    int getActiveTransactions();
+
+    /** Row, page and table locks currently held, by all transactions together. */
+    long getLocksHeld();
+
+    /** Lock requests currently waiting to be granted. */
+    long getWaiters();
+
+    int getAborts();
+
+    /** Aborts per second since the previous read of this attribute. */
+    double getAbortsPerSecond();
+
+    int getTasksFinished();
+}
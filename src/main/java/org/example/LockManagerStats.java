@@ -0,0 +1,84 @@
+package org.example;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** The LockManagerMXBean of one table. */
+final class LockManagerStats implements LockManagerMXBean {
+    private static final AtomicInteger registered = new AtomicInteger();
+
+    private final AvoidDeadlockLockingTable table;
+    private int lastAborts;
+    private long lastRead = System.nanoTime();
+
+    private LockManagerStats(final AvoidDeadlockLockingTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Registers the table's counters under a name of its own. Returns the name
+     * to unregister with, or null if registering failed; the table runs either
+     * way.
+     */
+    static ObjectName register(final AvoidDeadlockLockingTable table) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.example:type=LockManager,level="
+                    + AvoidDeadlockLockingTable.LOCK_LEVEL_NAMES[table.isolationLevel] + ",table=" + registered.incrementAndGet());
+            server.registerMBean(new LockManagerStats(table), name);
+            return name;
+        } catch (JMException e) {
+            System.err.println("Cannot register lock manager MBean: " + e);
+            return null;
+        }
+    }
+
+    static void unregister(final ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            System.err.println("Cannot unregister lock manager MBean: " + e);
+        }
+    }
+
+    @Override
+    public int getActiveTransactions() {
+        return table.activeTransactions.get();
+    }
+
+    @Override
+    public long getLocksHeld() {
+        return table.locksHeld();
+    }
+
+    @Override
+    public long getWaiters() {
+        return table.waiters.sum();
+    }
+
+    @Override
+    public int getAborts() {
+        return table.abortCount.get();
+    }
+
+    @Override
+    public synchronized double getAbortsPerSecond() {
+        final long now = System.nanoTime();
+        final int aborts = table.abortCount.get();
+        final double rate = (aborts - lastAborts) * 1e9 / Math.max(1, now - lastRead);
+        lastAborts = aborts;
+        lastRead = now;
+        return rate;
+    }
+
+    @Override
+    public int getTasksFinished() {
+        return table.tasksFinished.get();
+    }
+}
@@ -0,0 +1,37 @@
+package org.example;
+
+/**
+ * Lock modes of the multi-granularity protocol. Rows are only locked in S or
+ * X; pages and the table also take the intention modes IS, IX and SIX.
+ */
+enum LockMode {
+    S, X, IS, IX, SIX;
+
+    static final LockMode[] VALUES = values();
+
+    //                                          S      X      IS     IX     SIX
+    private static final boolean[][] COMPATIBLE = {
+            /* S   */ {true,  false, true,  false, false},
+            /* X   */ {false, false, false, false, false},
+            /* IS  */ {true,  false, true,  true,  true },
+            /* IX  */ {false, false, true,  true,  false},
+            /* SIX */ {false, false, true,  false, false},
+    };
+
+    boolean compatibleWith(final LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** True if holding this mode on a granule makes the given lock on anything below it unnecessary. */
+    boolean covers(final LockMode below) {
+        switch (this) {
+            case X:
+                return true;
+            case S:
+            case SIX:
+                return below == S || below == IS;
+            default:
+                return false;
+        }
+    }
+}
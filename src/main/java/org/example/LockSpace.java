@@ -0,0 +1,272 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A set of lockable granules (rows, pages or the table) whose lock state is
+ * packed into one long per granule. Subclasses define the packing; this class
+ * provides the waiting: the top bit of each word tells a releasing thread that
+ * somebody is parked, and waiters park on one of a fixed number of striped
+ * conditions.
+ *
+ * Asynchronous requests do not park at all: they are queued per granule in age
+ * order and granted, under the same stripe lock, by the thread that releases
+ * the granule, withdraws a request ahead of them or gives up a parked wait.
+ */
+abstract class LockSpace {
+    protected static final long WAITERS = Long.MIN_VALUE;
+    private static final int SPINS = 64;
+
+    protected final AtomicLongArray state;
+    final LockHolderTable holders;
+    private final int stripeMask;
+    private final ReentrantLock[] stripes;
+    private final Condition[] released;
+    private final ConcurrentHashMap<Integer, ArrayList<AsyncRequest>> asyncWaiters = new ConcurrentHashMap<>(); // lists guarded by the stripe lock
+
+    LockSpace(final int numGranules, final TransactionSlots slots) {
+        this.state = new AtomicLongArray(numGranules);
+        this.holders = new LockHolderTable(numGranules, slots);
+        int numStripes = Math.min(1024, Integer.highestOneBit(Math.max(1, numGranules - 1)) << 1);
+        this.stripeMask = numStripes - 1;
+        this.stripes = new ReentrantLock[numStripes];
+        this.released = new Condition[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new ReentrantLock();
+            released[i] = stripes[i].newCondition();
+        }
+    }
+
+    abstract boolean tryLock(int id, LockMode mode);
+
+    /** Releasing a lock that is not held is ignored. */
+    abstract void unlock(int id, LockMode mode);
+
+    /** Returns false if the lock could not be acquired within the timeout. */
+    boolean lock(final int id, final LockMode mode, final long timeout, final TimeUnit unit) throws InterruptedException {
+        return tryLock(id, mode) || spinOrPark(id, mode, unit.toNanos(timeout));
+    }
+
+    boolean hasWaiters(final int id) {
+        return (state.get(id) & WAITERS) != 0;
+    }
+
+    /** The raw lock word, to be handed back to awaitChange(). */
+    long state(final int id) {
+        return state.get(id);
+    }
+
+    /**
+     * Parks until the granule is released, without trying to acquire it. Returns
+     * at once if the lock word no longer matches the observed one.
+     */
+    void awaitChange(final int id, final long observed, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final int stripe = id & stripeMask;
+        final ReentrantLock lock = stripes[stripe];
+        lock.lockInterruptibly();
+        try {
+            long s = state.get(id);
+            if ((s & ~WAITERS) != (observed & ~WAITERS)) {
+                return;
+            }
+            if ((s & WAITERS) == 0 && !state.compareAndSet(id, s, s | WAITERS)) {
+                return;
+            }
+            released[stripe].awaitNanos(unit.toNanos(timeout));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues the request on the granule and registers it as a waiter. The
+     * future completes once the lock is granted, possibly right away, and
+     * completes with a TransactionAbortedException if the transaction is asked
+     * to abort before that.
+     */
+    void lockAsync(final int id, final AsyncRequest request) {
+        final ReentrantLock lock = stripes[id & stripeMask];
+        final ArrayList<AsyncRequest> done = new ArrayList<>(1);
+        lock.lock();
+        try {
+            final ArrayList<AsyncRequest> queue = asyncWaiters.computeIfAbsent(id, k -> new ArrayList<>());
+            int at = queue.size();
+            while (at > 0 && queue.get(at - 1).transaction.getTimestamp() > request.transaction.getTimestamp()) {
+                at--;
+            }
+            queue.add(at, request);
+            holders.addWaiter(id, request.transaction, request.mode);
+            grantAsync(id, done);
+        } finally {
+            lock.unlock();
+        }
+        complete(done);
+    }
+
+    /** Grants queued requests the granule admits now and drops those of aborting transactions. */
+    void retryAsync(final int id) {
+        final ReentrantLock lock = stripes[id & stripeMask];
+        final ArrayList<AsyncRequest> done = new ArrayList<>(1);
+        lock.lock();
+        try {
+            grantAsync(id, done);
+        } finally {
+            lock.unlock();
+        }
+        complete(done);
+    }
+
+    /**
+     * Withdraws a queued request and fails it, then grants what was queued
+     * behind it if the granule admits it now. Returns false if it was already
+     * granted or failed.
+     */
+    boolean cancelAsync(final int id, final AsyncRequest request) {
+        final ReentrantLock lock = stripes[id & stripeMask];
+        final ArrayList<AsyncRequest> done = new ArrayList<>(1);
+        lock.lock();
+        try {
+            final ArrayList<AsyncRequest> queue = asyncWaiters.get(id);
+            if (queue == null || !queue.remove(request)) {
+                return false;
+            }
+            holders.removeWaiter(id, request.transaction, request.mode);
+            if (queue.isEmpty()) {
+                asyncWaiters.remove(id);
+            } else {
+                grantAsync(id, done);
+            }
+        } finally {
+            lock.unlock();
+        }
+        request.granted.completeExceptionally(new TransactionAbortedException(request.transaction));
+        complete(done);
+        return true;
+    }
+
+    // Called with the stripe lock held; the futures are completed after it is released
+    private void grantAsync(final int id, final ArrayList<AsyncRequest> done) {
+        final ArrayList<AsyncRequest> queue = asyncWaiters.get(id);
+        if (queue == null) {
+            return;
+        }
+        while (true) {
+            boolean behindOlder = false;
+            while (!queue.isEmpty()) {
+                AsyncRequest r = queue.get(0);
+                if (!r.transaction.isAbortRequested()) {
+                    if (holders.hasOlderWaiter(id, r.transaction, r.mode)) {
+                        behindOlder = true; // a parked older transaction goes first
+                        break;
+                    }
+                    if (!tryLock(id, r.mode)) {
+                        break;
+                    }
+                    r.locked = true;
+                    holders.add(id, r.transaction, r.mode);
+                }
+                queue.remove(0);
+                holders.removeWaiter(id, r.transaction, r.mode);
+                done.add(r);
+            }
+            if (queue.isEmpty()) {
+                asyncWaiters.remove(id);
+                return;
+            }
+            // Like a parked waiter, announce the queue before giving up; the releasing
+            // thread sees the bit and comes back here under the stripe lock.
+            long s = state.get(id);
+            if (!behindOlder && admits(s, queue.get(0).mode)) {
+                continue;
+            }
+            if ((s & WAITERS) != 0 || state.compareAndSet(id, s, s | WAITERS)) {
+                return;
+            }
+        }
+    }
+
+    private static void complete(final ArrayList<AsyncRequest> done) {
+        for (AsyncRequest r : done) {
+            if (!r.locked) {
+                r.granted.completeExceptionally(new TransactionAbortedException(r.transaction));
+            } else {
+                r.granted.complete(null);
+            }
+        }
+    }
+
+    /** True if the lock word, ignoring the waiter bit, would admit the mode. */
+    protected abstract boolean admits(long s, LockMode mode);
+
+    private boolean spinOrPark(final int id, final LockMode mode, long nanos) throws InterruptedException {
+        for (int i = 0; i < SPINS; i++) {
+            Thread.onSpinWait();
+            if (tryLock(id, mode)) {
+                return true;
+            }
+        }
+        final int stripe = id & stripeMask;
+        final ReentrantLock lock = stripes[stripe];
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (tryLock(id, mode)) {
+                    return true;
+                }
+                // Announce the waiter before parking; the releasing thread sees the
+                // bit and signals under the same stripe lock, so no wakeup is lost.
+                long s = state.get(id);
+                if (admits(s, mode)) {
+                    continue;
+                }
+                if ((s & WAITERS) == 0 && !state.compareAndSet(id, s, s | WAITERS)) {
+                    continue;
+                }
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = released[stripe].awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void signal(final int id) {
+        final int stripe = id & stripeMask;
+        final ReentrantLock lock = stripes[stripe];
+        ArrayList<AsyncRequest> done = null;
+        lock.lock();
+        try {
+            released[stripe].signalAll();
+            if (!asyncWaiters.isEmpty()) {
+                done = new ArrayList<>(1);
+                grantAsync(id, done);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (done != null) {
+            complete(done);
+        }
+    }
+
+    /** A lock request that is answered through its future instead of a parked thread. */
+    static final class AsyncRequest {
+        final Transaction transaction;
+        final LockMode mode;
+        final CompletableFuture<Void> granted = new CompletableFuture<>();
+        boolean locked = false; // guarded by the stripe lock
+
+        AsyncRequest(final Transaction transaction, final LockMode mode) {
+            this.transaction = transaction;
+            this.mode = mode;
+        }
+    }
+}
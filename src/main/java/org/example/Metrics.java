@@ -0,0 +1,88 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and counters for the transactions of a table, split by
+ * what was timed, transaction type and isolation level.
+ *
+ * Like the cells of a LongAdder, every histogram is striped: a thread records
+ * into the stripe its id maps to, so threads hardly ever touch the same
+ * memory, and the stripes are only added up for a report. Histograms are
+ * created on first use, so unused combinations cost nothing.
+ */
+final class Metrics {
+    enum Timer { LOCK_WAIT, UPDATE, COMMIT, TRANSACTION }
+
+    private static final Transaction.TransactionType[] TYPES = Transaction.TransactionType.values();
+    private static final int NUM_TYPES = TYPES.length + 1; // plus transactions that never picked a type
+    private static final int NUM_LEVELS = AvoidDeadlockLockingTable.LOCK_LEVEL_NAMES.length;
+    private static final int NUM_KEYS = Timer.values().length * NUM_TYPES * NUM_LEVELS;
+
+    final LongAdder lockAttempts = new LongAdder();
+    final LongAdder failedLockAttempts = new LongAdder();
+    private final int stripeMask;
+    private final AtomicReferenceArray<LatencyHistogram> histograms;
+
+    Metrics() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.stripeMask = stripes - 1;
+        this.histograms = new AtomicReferenceArray<>(stripes * NUM_KEYS);
+    }
+
+    void record(final Timer timer, final Transaction.TransactionType type, final int isolationLevel, final long nanos) {
+        final int slot = ((int) Thread.currentThread().threadId() & stripeMask) * NUM_KEYS + key(timer, type, isolationLevel);
+        LatencyHistogram h = histograms.get(slot);
+        if (h == null) {
+            histograms.compareAndSet(slot, null, new LatencyHistogram());
+            h = histograms.get(slot);
+        }
+        h.record(nanos);
+    }
+
+    private static int key(final Timer timer, final Transaction.TransactionType type, final int isolationLevel) {
+        final int typeIndex = type == null ? TYPES.length : type.ordinal();
+        return (timer.ordinal() * NUM_TYPES + typeIndex) * NUM_LEVELS + isolationLevel;
+    }
+
+    /** All stripes of one combination added up; null if nothing was recorded for it. */
+    LatencyHistogram merged(final Timer timer, final Transaction.TransactionType type, final int isolationLevel) {
+        final int key = key(timer, type, isolationLevel);
+        LatencyHistogram merged = null;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            LatencyHistogram h = histograms.get(stripe * NUM_KEYS + key);
+            if (h != null) {
+                if (merged == null) {
+                    merged = new LatencyHistogram();
+                }
+                merged.add(h);
+            }
+        }
+        return merged;
+    }
+
+    /** Prints count and p50/p99/p99.9/max in microseconds for every combination that was recorded. */
+    void print() {
+        System.out.printf("%-12s %-16s %-16s %10s %10s %10s %10s %10s%n", "timer", "type", "isolation", "count", "p50 us", "p99 us", "p99.9 us", "max us");
+        for (Timer timer : Timer.values()) {
+            for (int type = 0; type < NUM_TYPES; type++) {
+                Transaction.TransactionType transactionType = type < TYPES.length ? TYPES[type] : null;
+                for (int level = 0; level < NUM_LEVELS; level++) {
+                    LatencyHistogram h = merged(timer, transactionType, level);
+                    if (h == null) {
+                        continue;
+                    }
+                    System.out.printf("%-12s %-16s %-16s %10d %10.1f %10.1f %10.1f %10.1f%n", timer,
+                            transactionType == null ? "-" : transactionType, AvoidDeadlockLockingTable.LOCK_LEVEL_NAMES[level], h.count(),
+                            h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3, h.percentile(0.999) / 1e3, h.max() / 1e3);
+                }
+            }
+        }
+        final long attempts = lockAttempts.sum();
+        final long failed = failedLockAttempts.sum();
+        System.out.println("Lock attempts: " + attempts);
+        System.out.println("Failed lock attempts: " + failed);
+        System.out.println("Lock contention rate: " + (attempts > 0 ? failed * 100.0 / attempts : 0) + "%");
+    }
+}
@@ -0,0 +1,120 @@
+package org.example;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One pass of a full-table scan split over the fork/join pool. Partitions are
+ * page aligned so a worker can lock its partition with a single page lock.
+ * Every partition counts the anomalies it finds on its own; these are added
+ * up in table order when the subtasks join, so the reader ends up with the
+ * same counts and samples, in the same order, as a serial scan.
+ *
+ * The workers share the reader's transaction. Its page lock waits are managed
+ * blocks in a pool of the scans' own, and under DETECT they take turns, since
+ * the wait-for graph keeps one wait per transaction. The pool makes up for blocked workers while it
+ * can and then lets them block: the locks they wait for are held by writers
+ * or by workers that are scanning, never by a worker waiting for a thread.
+ * A subtask that fails waits for the one it forked before it gives up, so by
+ * the time the reader sees the TransactionAbortedException and rolls back,
+ * every page lock of the scan has been released.
+ */
+final class ParallelScan extends RecursiveTask<ReadAnomalies> {
+    static final int PARTITION_SIZE = 1 << AvoidDeadlockLockingTable.PAGE_SHIFT;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+            null, false, 0, PARALLELISM + 256, 1, pool -> true, 60, TimeUnit.SECONDS);
+
+    private final AvoidDeadlockReader reader;
+    private final int pass;
+    private final LockMode partitionLock; // null if the partitions need no lock
+    private final ReentrantLock lockRequests; // DETECT only: one page lock request of the scan at a time
+    private final int from, to;
+
+    private ParallelScan(AvoidDeadlockReader reader, int pass, LockMode partitionLock, ReentrantLock lockRequests, int from, int to) {
+        this.reader = reader;
+        this.pass = pass;
+        this.partitionLock = partitionLock;
+        this.lockRequests = lockRequests;
+        this.from = from;
+        this.to = to;
+    }
+
+    /** Runs check_query_1 (pass 1) or check_query_2 (pass 2) over the whole table. */
+    static ReadAnomalies scan(AvoidDeadlockReader reader, int pass, LockMode partitionLock) {
+        return POOL.invoke(new ParallelScan(reader, pass, partitionLock,
+                AvoidDeadlockLockingTable.deadlockPolicy == AvoidDeadlockLockingTable.DeadlockPolicy.DETECT ? new ReentrantLock() : null,
+                0, reader.table.numTuples));
+    }
+
+    @Override
+    protected ReadAnomalies compute() {
+        if (to - from <= PARTITION_SIZE) {
+            return scanPartition();
+        }
+        int mid = from + Math.max(1, (to - from) / PARTITION_SIZE / 2) * PARTITION_SIZE;
+        ParallelScan right = new ParallelScan(reader, pass, partitionLock, lockRequests, mid, to);
+        right.fork();
+        final ReadAnomalies found;
+        try {
+            found = new ParallelScan(reader, pass, partitionLock, lockRequests, from, mid).compute();
+        } catch (RuntimeException e) {
+            // Not before the right half has let go of its page locks
+            right.cancel(false);
+            right.quietlyJoin();
+            throw e;
+        }
+        found.add(right.join());
+        return found;
+    }
+
+    private ReadAnomalies scanPartition() {
+        final ReadAnomalies found = new ReadAnomalies();
+        final int page = from >>> AvoidDeadlockLockingTable.PAGE_SHIFT;
+        if (partitionLock != null) {
+            lockPartition(page);
+        }
+        try {
+            reader.scanRange(from, to, pass, found);
+        } finally {
+            if (partitionLock != null) {
+                reader.table.unlockPage(page, reader, partitionLock);
+            }
+        }
+        return found;
+    }
+
+    private void lockPartition(final int page) {
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                private boolean locked;
+
+                @Override
+                public boolean block() {
+                    if (lockRequests == null) {
+                        reader.table.lockPage(page, reader, partitionLock);
+                    } else {
+                        lockRequests.lock();
+                        try {
+                            reader.table.lockPage(page, reader, partitionLock);
+                        } finally {
+                            lockRequests.unlock();
+                        }
+                    }
+                    locked = true;
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return locked;
+                }
+            });
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            throw new TransactionAbortedException(reader);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.example;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * One partition of a PartitionedLockingTable: a table of its own, with its own
+ * storage and lock managers, and an executor that runs the requests sent to
+ * it. Requests block on locks, so the executor starts a virtual thread per
+ * request rather than queueing them behind a blocked one.
+ *
+ * Coordinators visit partitions in ascending order while they hold locks
+ * elsewhere, and within a partition rows are locked in ascending order by
+ * lockWriteSet and lockReadSet, so no wait can close a cycle, across
+ * partitions either. Readers scan partitions under S and start over as soon
+ * as they are done, each time younger than before; a writer waiting for its
+ * IX intention lock is queued ahead of them, so it gets a gap between scans.
+ * Aborted branches vote no rather than throw.
+ */
+final class Partition {
+    final int id;
+    final AvoidDeadlockLockingTable table;
+    final ExecutorService executor;
+
+    Partition(final int id, final int isolation_level, final int numTuples) {
+        this.id = id;
+        this.table = new AvoidDeadlockLockingTable(isolation_level, numTuples);
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("partition-" + id + "-", 0).factory());
+    }
+
+    private boolean serial() {
+        return table.isolationLevel == AvoidDeadlockLockingTable.USE_TABLE_LOCKS;
+    }
+
+    /** Locks the branch's rows, or the partition when SERIAL. False if the branch was aborted. */
+    boolean lock(final PartitionBranch b) {
+        b.begin_of_transaction();
+        try {
+            final boolean write = b.getType() == Transaction.TransactionType.WRITE;
+            if (serial()) {
+                table.lockTable(b, write ? LockMode.X : LockMode.S);
+            } else if (write) {
+                table.lockWriteSet(b.tids, b);
+            } else {
+                table.lockReadSet(b.tids, b);
+            }
+            return true;
+        } catch (TransactionAbortedException e) {
+            table.rollback(b);
+            return false;
+        }
+    }
+
+    /**
+     * Phase one: writes the new values under the branch's locks and votes.
+     * A yes vote promises that commit will succeed, so from here on the branch
+     * only ends by commit or abort from the coordinator.
+     */
+    boolean prepare(final PartitionBranch b) {
+        try {
+            for (int i = 0; i < b.tids.length; i++) {
+                table.update(b.tids[i], b.task, b.values[i], b.undoLog);
+            }
+            b.checkAbort(); // A wounded writer must not commit
+            return true;
+        } catch (TransactionAbortedException e) {
+            table.rollback(b);
+            return false;
+        }
+    }
+
+    /** Phase two after every branch voted yes. */
+    void commit(final PartitionBranch b) {
+        table.commit(b.task, b.comitted);
+        table.commitAggregates(b.tids);
+        table.releaseAllLocks(b);
+    }
+
+    /** Phase two after a no vote; only sent to branches that still hold their locks. */
+    void abort(final PartitionBranch b) {
+        table.rollback(b);
+    }
+
+    /** A writer whose rows are all here: lock, write and commit in one request, without voting. */
+    boolean commitOnePhase(final PartitionBranch b) {
+        if (!lock(b) || !prepare(b)) {
+            return false;
+        }
+        commit(b);
+        return true;
+    }
+
+    /** Releases right away unless the locks are to be held and the level holds read locks at all. */
+    private void endRead(final PartitionBranch b, final boolean hold) {
+        if (!hold || table.isolationLevel == AvoidDeadlockLockingTable.READ_COMMITED) {
+            table.releaseAllLocks(b);
+        }
+    }
+
+    /** Locks and reads the branch's rows; with hold, the locks stay until release. */
+    boolean read(final PartitionBranch b, final boolean hold) {
+        if (!lock(b)) {
+            return false;
+        }
+        for (int i = 0; i < b.tids.length; i++) {
+            b.values[i] = table.getValue(b.tids[i]);
+        }
+        endRead(b, hold);
+        return true;
+    }
+
+    /**
+     * Share-locks the whole partition and adds the values within [lo, hi] to
+     * the totals; with partition aggregates and nothing filtered out they are
+     * taken from there. With hold, the lock stays until release. Null if the
+     * branch was aborted.
+     */
+    PartitionAggregates.Totals scan(final PartitionBranch b, final double lo, final double hi, final boolean hold) {
+        b.begin_of_transaction();
+        try {
+            table.lockTable(b, LockMode.S);
+        } catch (TransactionAbortedException e) {
+            table.rollback(b);
+            return null;
+        }
+        final PartitionAggregates.Totals totals = new PartitionAggregates.Totals();
+        if (table.aggregates != null && lo == Double.NEGATIVE_INFINITY && hi == Double.POSITIVE_INFINITY) {
+            table.aggregates.total(totals);
+        } else {
+            for (int tid = 0; tid < table.numTuples; tid++) {
+                final double value = table.getValue(tid);
+                if (value >= lo && value <= hi) {
+                    totals.add(value);
+                }
+            }
+        }
+        endRead(b, hold);
+        return totals;
+    }
+
+    /** Ends a reader that kept its locks until it had read every partition. */
+    void release(final PartitionBranch b) {
+        table.releaseAllLocks(b);
+    }
+
+    /** Waits for the requests still running and stops the executor. */
+    void close() {
+        executor.close();
+    }
+}
@@ -0,0 +1,252 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * SUM, COUNT, MIN and MAX of DATA_VALUE over the committed table, kept per
+ * page so an aggregate read costs one step per page instead of one per row
+ * and committing writers rarely meet on the same partition.
+ *
+ * Writers fold their rows in once their commit has succeeded, while they
+ * still hold the rows, so the aggregates never contain uncommitted values and
+ * a rollback has nothing to take back. Before a writer overwrites a row in the store it hands in the
+ * before image, which stays here until the writer commits or restores the
+ * row: it gives the old value to subtract at commit, and when a partition's
+ * minimum or maximum is overwritten by a value past it, the new one is found
+ * again among the partition's rows in the store, taking the before image for
+ * the rows that are being written. Rows are never inserted or deleted, so
+ * COUNT of a partition is its size. At READ_UN_COMMITED, where writers
+ * overwrite each other's rows without locks, the totals are as dirty as the
+ * rows.
+ *
+ * The totals are those of the newest committed state only; SNAPSHOT readers
+ * do not use them and add up the versions of their snapshot instead.
+ *
+ * Each partition has a StampedLock; readers normally only validate a stamp.
+ */
+final class PartitionAggregates {
+    static final int PARTITION_SHIFT = AvoidDeadlockLockingTable.PAGE_SHIFT;
+
+    private final TupleStore store;
+    private final int numTuples;
+    private final double[] sum, min, max;
+    private final BeforeImages[] overwritten; // guarded by the partition's write lock
+    private final StampedLock[] locks;
+
+    /** The aggregates of the store as it is now, taken to be committed. */
+    PartitionAggregates(final TupleStore store) {
+        this.store = store;
+        this.numTuples = store.numTuples;
+        final int partitions = (numTuples + (1 << PARTITION_SHIFT) - 1) >>> PARTITION_SHIFT;
+        this.sum = new double[partitions];
+        this.min = new double[partitions];
+        this.max = new double[partitions];
+        this.overwritten = new BeforeImages[partitions];
+        this.locks = new StampedLock[partitions];
+        for (int p = 0; p < partitions; p++) {
+            locks[p] = new StampedLock();
+            overwritten[p] = new BeforeImages();
+            double s = 0;
+            for (int tid = p << PARTITION_SHIFT, end = end(p); tid < end; tid++) {
+                s += store.getValue(tid);
+            }
+            sum[p] = s;
+            recomputeMinMax(p);
+        }
+    }
+
+    int partitions() {
+        return locks.length;
+    }
+
+    private int end(final int p) {
+        return Math.min(numTuples, (p + 1) << PARTITION_SHIFT);
+    }
+
+    /**
+     * A writer is about to overwrite the row in the store; committed is the
+     * value there now. Only the first before image counts until the row is
+     * committed or restored.
+     */
+    void overwriting(final int tid, final double committed) {
+        final int p = tid >>> PARTITION_SHIFT;
+        final long stamp = locks[p].writeLock();
+        try {
+            overwritten[p].add(tid, committed);
+        } finally {
+            locks[p].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * The writer put value back into the store. Once that is the before image,
+     * the row is committed as it was and nothing changes.
+     */
+    void restored(final int tid, final double value) {
+        final int p = tid >>> PARTITION_SHIFT;
+        final long stamp = locks[p].writeLock();
+        try {
+            final BeforeImages images = overwritten[p];
+            final int i = images.indexOf(tid);
+            if (i >= 0 && images.values[i] == value) {
+                images.removeAt(i);
+            }
+        } finally {
+            locks[p].unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Makes value the committed value of the row in place of its before
+     * image. A row whose before image is gone was folded in already, e.g.
+     * when a writer updated it twice.
+     */
+    void commit(final int tid, final double value) {
+        final int p = tid >>> PARTITION_SHIFT;
+        final long stamp = locks[p].writeLock();
+        try {
+            final BeforeImages images = overwritten[p];
+            final int i = images.indexOf(tid);
+            if (i < 0) {
+                return;
+            }
+            final double old = images.values[i];
+            images.removeAt(i);
+            sum[p] += value - old;
+            if ((old == min[p] && value > old) || (old == max[p] && value < old)) {
+                recomputeMinMax(p);
+            } else {
+                min[p] = Math.min(min[p], value);
+                max[p] = Math.max(max[p], value);
+            }
+        } finally {
+            locks[p].unlockWrite(stamp);
+        }
+    }
+
+    // Called with the partition's write lock held, so no row starts being overwritten meanwhile
+    private void recomputeMinMax(final int p) {
+        final BeforeImages images = overwritten[p];
+        double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+        for (int tid = p << PARTITION_SHIFT, end = end(p); tid < end; tid++) {
+            if (images.size == 0 || images.indexOf(tid) < 0) {
+                final double value = store.getValue(tid);
+                lo = Math.min(lo, value);
+                hi = Math.max(hi, value);
+            }
+        }
+        for (int i = 0; i < images.size; i++) {
+            lo = Math.min(lo, images.values[i]);
+            hi = Math.max(hi, images.values[i]);
+        }
+        min[p] = lo;
+        max[p] = hi;
+    }
+
+    /** Adds the committed aggregates of partition p to the totals, as they were at one instant. */
+    void addTo(final int p, final Totals totals) {
+        final StampedLock lock = locks[p];
+        long stamp = lock.tryOptimisticRead();
+        double s = sum[p], lo = min[p], hi = max[p];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                s = sum[p];
+                lo = min[p];
+                hi = max[p];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        totals.sum += s;
+        totals.count += end(p) - (p << PARTITION_SHIFT);
+        totals.min = Math.min(totals.min, lo);
+        totals.max = Math.max(totals.max, hi);
+    }
+
+    /** The totals over all partitions; each partition is consistent, the whole only if writers are kept out. */
+    void total(final Totals totals) {
+        totals.clear();
+        for (int p = 0; p < locks.length; p++) {
+            addTo(p, totals);
+        }
+    }
+
+    /** Committed values of a partition's rows that are being overwritten; a handful at a time. */
+    private static final class BeforeImages {
+        int[] tids = new int[8];
+        double[] values = new double[8];
+        int size;
+
+        int indexOf(final int tid) {
+            for (int i = 0; i < size; i++) {
+                if (tids[i] == tid) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void add(final int tid, final double value) {
+            if (indexOf(tid) >= 0) {
+                return;
+            }
+            if (size == tids.length) {
+                tids = Arrays.copyOf(tids, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            tids[size] = tid;
+            values[size] = value;
+            size++;
+        }
+
+        void removeAt(final int i) {
+            size--;
+            tids[i] = tids[size];
+            values[i] = values[size];
+        }
+    }
+
+    /** The answer of an aggregate read; reused across reads. */
+    static final class Totals {
+        double sum;
+        long count;
+        double min, max;
+
+        Totals() {
+            clear();
+        }
+
+        void clear() {
+            sum = 0;
+            count = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+        }
+
+        void add(final double value) {
+            sum += value;
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        /** Takes in the totals of other rows, e.g. another partition's. */
+        void add(final Totals o) {
+            sum += o.sum;
+            count += o.count;
+            min = Math.min(min, o.min);
+            max = Math.max(max, o.max);
+        }
+
+        boolean sameAs(final Totals o) {
+            return sum == o.sum && count == o.count && min == o.min && max == o.max;
+        }
+
+        @Override
+        public String toString() {
+            return "SUM=" + sum + " COUNT=" + count + " MIN=" + min + " MAX=" + max;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The part of a DistributedTransaction that runs on one partition: the rows it
+ * touches there, in the partition's own tids, and the lock, undo and commit
+ * state the partition's table keeps for it. Each partition has its own
+ * TransactionSlots, so a transaction holds locks in several partitions only
+ * through one branch per partition. Branches live as long as their
+ * transaction and are reused by its restarts.
+ */
+final class PartitionBranch extends Transaction {
+    final Partition partition;
+    final int task;
+    final int[] tids; // partition tids; null for a branch that reads the whole partition
+    final double[] values; // new values of a writer, or what a reader read
+    final UndoLog undoLog;
+    final AtomicBoolean comitted = new AtomicBoolean(false);
+
+    PartitionBranch(final TransactionType type, final Partition partition, final int task, final int[] tids) {
+        super(type, partition.table.newStream());
+        this.partition = partition;
+        this.task = task;
+        this.tids = tids;
+        this.values = tids == null ? null : new double[tids.length];
+        this.undoLog = type == TransactionType.WRITE ? new UndoLog(tids.length) : null;
+    }
+
+    @Override
+    public boolean begin_of_transaction() {
+        if (undoLog != null) {
+            undoLog.clear();
+        }
+        return super.begin_of_transaction();
+    }
+
+    @Override
+    public boolean rollback() {
+        if (undoLog != null) {
+            undoLog.undo(partition.table);
+            partition.table.logAbort(task);
+        }
+        partition.table.releaseAllLocks(this);
+        return true;
+    }
+
+    public String toString() {
+        return "Task " + task + " on partition " + partition.id;
+    }
+}
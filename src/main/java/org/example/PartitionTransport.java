@@ -0,0 +1,68 @@
+package org.example;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * How coordinators reach the partitions of a PartitionedLockingTable. A
+ * request is a function of the partition, run there on the partition's
+ * executor; its future completes with the reply. A transport between
+ * processes would ship the branch and a request code instead of a function,
+ * the coordinators would not notice.
+ */
+interface PartitionTransport {
+    <T> CompletableFuture<T> call(int partition, Function<Partition, T> request);
+
+    default CompletableFuture<Void> send(final int partition, final Consumer<Partition> request) {
+        return call(partition, p -> {
+            request.accept(p);
+            return null;
+        });
+    }
+
+    /** Requests sent so far. */
+    long messages();
+
+    /**
+     * In-process stand-in for a network: calls the partition directly on its
+     * executor. A one-way delay, paid on the partition's side before the
+     * request runs and again before the reply, makes round trips cost
+     * something, so the price of two-phase commit shows up in a run.
+     */
+    final class Local implements PartitionTransport {
+        private final Partition[] partitions;
+        private final long delayNanos;
+        private final LongAdder messages = new LongAdder();
+
+        Local(final Partition[] partitions, final long delayMicros) {
+            this.partitions = partitions;
+            this.delayNanos = delayMicros * 1000;
+        }
+
+        @Override
+        public <T> CompletableFuture<T> call(final int partition, final Function<Partition, T> request) {
+            messages.increment();
+            final Partition p = partitions[partition];
+            return CompletableFuture.supplyAsync(() -> {
+                delay();
+                final T reply = request.apply(p);
+                delay();
+                return reply;
+            }, p.executor);
+        }
+
+        private void delay() {
+            if (delayNanos > 0) {
+                LockSupport.parkNanos(delayNanos);
+            }
+        }
+
+        @Override
+        public long messages() {
+            return messages.sum();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The table of AvoidDeadlockLockingTable split by tid into partitions, each a
+ * table of its own with its own storage, lock managers and executor, so
+ * transactions on different partitions never meet in a lock manager. Rows are
+ * spread by hash (tid modulo the partition count) or by range (consecutive
+ * tids). Transactions are DistributedTransactions, which reach the partitions
+ * through a PartitionTransport; for now that is the in-process stand-in.
+ *
+ * Runs the workload of AvoidDeadlockLockingTable at READ_COMMITED,
+ * REPEATABLE_READ and SERIAL. Full scans, range and aggregate reads read every
+ * partition whole under a partition S lock. Partitions keep no log and no
+ * checkpoint yet, and have none of the table's optional execution modes.
+ */
+public class PartitionedLockingTable {
+    enum Partitioning {
+        /** Row tid lives in partition tid % partitions. */
+        HASH,
+        /** Partition p holds a block of consecutive tids. */
+        RANGE
+    }
+    static Partitioning partitioning = Partitioning.HASH;
+    static long transportDelayMicros = 0; // One-way delay of every request and reply of the local transport
+
+    final int numTuples;
+    final int isolationLevel;
+    final Partition[] partitions;
+    final PartitionTransport transport;
+    final Workload.Keys keys;
+    private final SplittableRandom streams; // root of the transactions' random streams
+    private final int rowsPerPartition; // RANGE only
+    final double maxValue;
+    final ArrayList<DistributedTransaction> transactions = new ArrayList<>();
+
+    // Statistics tracking
+    final AtomicInteger writeCount = new AtomicInteger(0);
+    final AtomicInteger writersFinished = new AtomicInteger(0);
+    final AtomicInteger abortCount = new AtomicInteger(0);
+    final LongAdder onePhaseCommits = new LongAdder();
+    final LongAdder twoPhaseCommits = new LongAdder();
+
+    public PartitionedLockingTable(final int isolation_level, final int numPartitions) {
+        this(isolation_level, AvoidDeadlockLockingTable.DEFAULT_NUM_TUPLES, numPartitions);
+    }
+
+    public PartitionedLockingTable(final int isolation_level, final int numTuples, final int numPartitions) {
+        if (isolation_level != AvoidDeadlockLockingTable.READ_COMMITED && isolation_level != AvoidDeadlockLockingTable.REPEATABLE_READ
+                && isolation_level != AvoidDeadlockLockingTable.USE_TABLE_LOCKS) {
+            throw new IllegalArgumentException("Partitioned tables run READ_COMMITED, REPEATABLE_READ or SERIAL, not "
+                    + AvoidDeadlockLockingTable.LOCK_LEVEL_NAMES[isolation_level]);
+        }
+        if (numPartitions < 1 || numPartitions > numTuples) {
+            throw new IllegalArgumentException(numPartitions + " partitions for " + numTuples + " tuples");
+        }
+        if (AvoidDeadlockLockingTable.logFile != null || AvoidDeadlockLockingTable.checkpointFile != null) {
+            throw new IllegalStateException("Partitions are kept in memory only; unset logFile and checkpointFile");
+        }
+        if (AvoidDeadlockLockingTable.optimisticWriters || AvoidDeadlockLockingTable.pipelinedLocks || AvoidDeadlockLockingTable.parallelScans
+                || AvoidDeadlockLockingTable.valueIndex || AvoidDeadlockLockingTable.deterministicScheduling) {
+            throw new IllegalStateException("Partitions lock in tid order and scan serially; unset optimisticWriters, pipelinedLocks, "
+                    + "parallelScans, valueIndex and deterministicScheduling");
+        }
+        System.out.println("Creating " + partitioning + " partitioned table with " + numPartitions + " partitions");
+        this.numTuples = numTuples;
+        this.isolationLevel = isolation_level;
+        this.rowsPerPartition = (numTuples + numPartitions - 1) / numPartitions;
+        this.partitions = new Partition[numPartitions];
+        for (int p = 0; p < numPartitions; p++) {
+            final int size = partitioning == Partitioning.HASH ? (numTuples - p + numPartitions - 1) / numPartitions
+                    : Math.min(rowsPerPartition, numTuples - p * rowsPerPartition);
+            partitions[p] = new Partition(p, isolation_level, size);
+        }
+        this.maxValue = partitions[0].table.maxValue;
+        this.transport = new PartitionTransport.Local(partitions, transportDelayMicros);
+        this.keys = AvoidDeadlockLockingTable.workload.keys(numTuples);
+        this.streams = AvoidDeadlockLockingTable.workload.rootStream();
+    }
+
+    int partitionOf(final int tid) {
+        return partitioning == Partitioning.HASH ? tid % partitions.length : tid / rowsPerPartition;
+    }
+
+    /** The row's tid within its partition. */
+    int localTid(final int tid) {
+        return partitioning == Partitioning.HASH ? tid / partitions.length : tid % rowsPerPartition;
+    }
+
+    /**
+     * One branch per partition the tids fall into, in ascending partition
+     * order, or one per partition for null tids.
+     */
+    PartitionBranch[] branches(final Transaction.TransactionType type, final int task, final int[] tids) {
+        if (tids == null) {
+            final PartitionBranch[] all = new PartitionBranch[partitions.length];
+            for (int p = 0; p < partitions.length; p++) {
+                all[p] = new PartitionBranch(type, partitions[p], task, null);
+            }
+            return all;
+        }
+        final int[] counts = new int[partitions.length];
+        for (int tid : tids) {
+            counts[partitionOf(tid)]++;
+        }
+        final int[][] local = new int[partitions.length][];
+        for (int p = 0; p < partitions.length; p++) {
+            local[p] = new int[counts[p]];
+        }
+        Arrays.fill(counts, 0);
+        for (int tid : tids) {
+            final int p = partitionOf(tid);
+            local[p][counts[p]++] = localTid(tid);
+        }
+        final ArrayList<PartitionBranch> touched = new ArrayList<>();
+        for (int p = 0; p < partitions.length; p++) {
+            if (local[p].length > 0) {
+                touched.add(new PartitionBranch(type, partitions[p], task, local[p]));
+            }
+        }
+        return touched.toArray(new PartitionBranch[0]);
+    }
+
+    /** A random stream of its own for a new transaction. */
+    synchronized SplittableRandom newStream() {
+        return streams.split();
+    }
+
+    public void run() {
+        final int numTasks = AvoidDeadlockLockingTable.numTasks;
+        ExecutorService executor = AvoidDeadlockLockingTable.virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(numTasks);
+        CountDownLatch done = new CountDownLatch(numTasks);
+        final SplittableRandom mix = newStream();
+        for (int i = 0; i < numTasks; i++) {
+            Transaction.TransactionType type = AvoidDeadlockLockingTable.workload.nextType(mix);
+            if (type == Transaction.TransactionType.WRITE) {
+                writeCount.incrementAndGet();
+            }
+            transactions.add(new DistributedTransaction(i, type, this));
+        }
+        double start = System.currentTimeMillis();
+        for (DistributedTransaction t : transactions) {
+            executor.execute(() -> {
+                try {
+                    t.run();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        }
+        executor.close();
+        double stop = System.currentTimeMillis();
+        close();
+        printStatistics(start, stop);
+    }
+
+    /** Stops the partitions' executors; run() does this once every transaction is done. */
+    public void close() {
+        for (Partition p : partitions) {
+            p.close();
+        }
+    }
+
+    private void printStatistics(double start, double stop) {
+        final int[] byType = new int[Transaction.TransactionType.values().length];
+        long executions = 0;
+        for (DistributedTransaction t : transactions) {
+            byType[t.getType().ordinal()]++;
+            executions += t.executions;
+        }
+        long escalations = 0;
+        for (Partition p : partitions) {
+            escalations += p.table.escalationCount.get();
+        }
+        System.out.println("\n=== Partitioned Transaction Statistics ===");
+        System.out.println("Partitions: " + partitions.length + " (" + partitioning + ")");
+        System.out.println("Total execution time: " + (stop - start) + " ms");
+        for (Transaction.TransactionType type : Transaction.TransactionType.values()) {
+            System.out.println(type + " transactions: " + byType[type.ordinal()]);
+        }
+        System.out.println("Executions: " + executions);
+        System.out.println("One-phase commits: " + onePhaseCommits.sum() + ", two-phase commits: " + twoPhaseCommits.sum());
+        System.out.println("Aborted and restarted executions: " + abortCount.get());
+        System.out.println("Lock escalations: " + escalations);
+        System.out.println("Messages: " + transport.messages());
+        System.out.println("==========================\n");
+    }
+
+    public static void main(String[] args) {
+        int isolation_level = AvoidDeadlockLockingTable.REPEATABLE_READ;
+        AvoidDeadlockLockingTable.verbose = false;
+        AvoidDeadlockLockingTable.numTasks = 100;
+
+        // The same workload on more and more partitions
+        for (int partitions = 1; partitions <= 8; partitions *= 2) {
+            new PartitionedLockingTable(isolation_level, partitions).run();
+        }
+    }
+}
@@ -1,36 +1,25 @@
 package org.example;
 
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PerformanceTest {
-    // Track timing per thread to avoid conflicts in concurrent access
-    public static final ConcurrentHashMap<Long, ThreadTimer> threadTimers = new ConcurrentHashMap<>();
-
-    // Aggregate statistics
-    public static final AtomicLong totalLockWaitTime = new AtomicLong(0);
-    public static final AtomicLong totalUpdateTime = new AtomicLong(0);
-    public static final AtomicLong lockAttempts = new AtomicLong(0);
-    public static final AtomicLong failedLockAttempts = new AtomicLong(0);
 
     public static void main(String[] args) {
+        // Console output would serialize the threads being measured; use JFR or the MBean to watch a run
+        AvoidDeadlockLockingTable.verbose = false;
+
         // Test with different loads
         testWithLoad(100);  // Low load
         testWithLoad(500);  // Medium load
         testWithLoad(1000); // High load
+
+        // Same load with one virtual thread per transaction
+        AvoidDeadlockLockingTable.virtualThreads = true;
+        testWithLoad(1000);
     }
 
     private static void testWithLoad(int numTasks) {
-        // Reset statistics
-        threadTimers.clear();
-        totalLockWaitTime.set(0);
-        totalUpdateTime.set(0);
-        lockAttempts.set(0);
-        failedLockAttempts.set(0);
-
-        System.out.println("\nTesting with " + numTasks + " tasks:");
+        System.out.println("\nTesting with " + numTasks + " tasks" + (AvoidDeadlockLockingTable.virtualThreads ? " on virtual threads:" : ":"));
         AvoidDeadlockLockingTable.numTasks = numTasks;
 
         InstrumentedLockingTable table = new InstrumentedLockingTable(
@@ -40,121 +29,106 @@ public class PerformanceTest {
         table.run();
         long endTime = System.nanoTime();
 
-        printStatistics(startTime, endTime);
+        printStatistics(table, startTime, endTime);
     }
 
-    private static void printStatistics(long startTime, long endTime) {
-        long totalTime = (endTime - startTime) / 1_000_000; // Convert to ms
-        long avgLockWaitTime = lockAttempts.get() > 0 ?
-                totalLockWaitTime.get() / lockAttempts.get() / 1_000_000 : 0;
-
+    private static void printStatistics(InstrumentedLockingTable table, long startTime, long endTime) {
         System.out.println("Performance Statistics:");
         System.out.println("----------------------");
-        System.out.println("Total execution time: " + totalTime + "ms");
-        System.out.println("Total lock wait time: " + (totalLockWaitTime.get() / 1_000_000) + "ms");
-        System.out.println("Average lock wait time: " + avgLockWaitTime + "ms per attempt");
-        System.out.println("Total update time: " + (totalUpdateTime.get() / 1_000_000) + "ms");
-        System.out.println("Lock attempts: " + lockAttempts.get());
-        System.out.println("Failed lock attempts: " + failedLockAttempts.get());
-        System.out.println("Lock contention rate: " +
-                (lockAttempts.get() > 0 ?
-                        (failedLockAttempts.get() * 100.0 / lockAttempts.get()) : 0) + "%");
-    }
-}
-
-class ThreadTimer {
-    private long lockWaitStartTime = 0;
-
-    public void startWait() {
-        lockWaitStartTime = System.nanoTime();
-    }
-
-    public long endWait() {
-        if (lockWaitStartTime == 0) return 0;
-        long waitTime = System.nanoTime() - lockWaitStartTime;
-        lockWaitStartTime = 0;
-        return waitTime;
+        System.out.println("Total execution time: " + (endTime - startTime) / 1_000_000 + "ms");
+        table.metrics.print();
     }
 }
 
 class InstrumentedLockingTable extends AvoidDeadlockLockingTable {
+    final Metrics metrics = new Metrics();
 
     public InstrumentedLockingTable(int isolation_level) {
         super(isolation_level);
     }
 
+    public InstrumentedLockingTable(int isolation_level, int numTuples) {
+        super(isolation_level, numTuples);
+    }
+
     @Override
     public void getWriteLock(final int tid, Transaction requestingTransaction, boolean favorOlder) {
-        ThreadTimer timer = getOrCreateThreadTimer();
-        timer.startWait();
-        PerformanceTest.lockAttempts.incrementAndGet();
-
+        final long start = System.nanoTime();
+        metrics.lockAttempts.increment();
         try {
-            boolean acquired = false;
-            while (!acquired) {
-                acquired = rowLocks[tid].tryAcquire(numTasks, TIME_OUT, java.util.concurrent.TimeUnit.SECONDS);
-                if (!acquired) {
-                    PerformanceTest.failedLockAttempts.incrementAndGet();
-                    Transaction holdingTransaction = getHolderTransaction(tid);
-                    if (holdingTransaction != null) {
-                        if (shouldAbort(requestingTransaction, holdingTransaction)) {
-                            holdingTransaction.rollback();
-                            break;
-                        }
-                    }
-                }
-            }
-            PerformanceTest.totalLockWaitTime.addAndGet(timer.endWait());
-
-            setHolderTransaction(tid, requestingTransaction);
-            requestingTransaction.writeLockGranted(tid);
-        } catch (InterruptedException e) {
-            PerformanceTest.totalLockWaitTime.addAndGet(timer.endWait());
-            e.printStackTrace();
+            super.getWriteLock(tid, requestingTransaction, favorOlder);
+        } finally {
+            recordLockWait(requestingTransaction, start);
         }
     }
 
     @Override
     public void getReadLock(final int tid, Transaction requestingTransaction, boolean favorOlder) {
-        ThreadTimer timer = getOrCreateThreadTimer();
-        timer.startWait();
-        PerformanceTest.lockAttempts.incrementAndGet();
+        final long start = System.nanoTime();
+        metrics.lockAttempts.increment();
+        try {
+            super.getReadLock(tid, requestingTransaction, favorOlder);
+        } finally {
+            recordLockWait(requestingTransaction, start);
+        }
+    }
 
+    @Override
+    public void lockWriteSet(final int[] tids, Transaction requestingTransaction) {
+        final long start = System.nanoTime();
+        metrics.lockAttempts.add(tids.length);
         try {
-            boolean acquired = false;
-            while (!acquired) {
-                acquired = rowLocks[tid].tryAcquire(TIME_OUT, java.util.concurrent.TimeUnit.SECONDS);
-                if (!acquired) {
-                    PerformanceTest.failedLockAttempts.incrementAndGet();
-                    Transaction holdingTransaction = getHolderTransaction(tid);
-                    if (holdingTransaction != null) {
-                        if (shouldAbort(requestingTransaction, holdingTransaction)) {
-                            holdingTransaction.rollback();
-                            break;
-                        }
-                    }
-                }
-            }
-            PerformanceTest.totalLockWaitTime.addAndGet(timer.endWait());
-
-            setHolderTransaction(tid, requestingTransaction);
-            requestingTransaction.readLockGranted(tid);
-        } catch (InterruptedException e) {
-            PerformanceTest.totalLockWaitTime.addAndGet(timer.endWait());
-            e.printStackTrace();
+            super.lockWriteSet(tids, requestingTransaction);
+        } finally {
+            recordLockWait(requestingTransaction, start);
         }
     }
 
     @Override
-    public double[] update(final int tid, final int task, final double new_value) {
-        long startTime = System.nanoTime();
-        double[] result = super.update(tid, task, new_value);
-        PerformanceTest.totalUpdateTime.addAndGet(System.nanoTime() - startTime);
-        return result;
+    public void lockReadSet(final int[] tids, Transaction requestingTransaction) {
+        final long start = System.nanoTime();
+        metrics.lockAttempts.add(tids.length);
+        try {
+            super.lockReadSet(tids, requestingTransaction);
+        } finally {
+            recordLockWait(requestingTransaction, start);
+        }
+    }
+
+    private void recordLockWait(Transaction t, final long start) {
+        metrics.record(Metrics.Timer.LOCK_WAIT, t.getType(), isolationLevel, System.nanoTime() - start);
+    }
+
+    @Override
+    protected void onLockWait(final int tid, Transaction requestingTransaction) {
+        metrics.failedLockAttempts.increment();
+    }
+
+    // Only writers update and commit
+    @Override
+    public void update(final int tid, final int task, final double new_value, final UndoLog undo) {
+        final long start = System.nanoTime();
+        super.update(tid, task, new_value, undo);
+        metrics.record(Metrics.Timer.UPDATE, Transaction.TransactionType.WRITE, isolationLevel, System.nanoTime() - start);
     }
 
-    private ThreadTimer getOrCreateThreadTimer() {
-        long threadId = Thread.currentThread().getId();
-        return PerformanceTest.threadTimers.computeIfAbsent(threadId, k -> new ThreadTimer());
+    @Override
+    public void commit(final int task, final AtomicBoolean comitted) {
+        final long start = System.nanoTime();
+        super.commit(task, comitted);
+        metrics.record(Metrics.Timer.COMMIT, Transaction.TransactionType.WRITE, isolationLevel, System.nanoTime() - start);
+    }
+
+    @Override
+    public long commitSnapshot(final int[] tids, final double[] new_values, final int task, final AtomicBoolean comitted) {
+        final long start = System.nanoTime();
+        long cts = super.commitSnapshot(tids, new_values, task, comitted);
+        metrics.record(Metrics.Timer.COMMIT, Transaction.TransactionType.WRITE, isolationLevel, System.nanoTime() - start);
+        return cts;
     }
-}
\ No newline at end of file
+
+    @Override
+    protected void onTransactionEnd(Transaction t, final long nanos) {
+        metrics.record(Metrics.Timer.TRANSACTION, t.getType(), isolationLevel, nanos);
+    }
+}
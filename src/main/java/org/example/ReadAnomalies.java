@@ -0,0 +1,95 @@
+package org.example;
+
+/**
+ * Uncommitted and non-repeatable reads seen by a reader, range or aggregate
+ * reads whose second pass did not find the same as the first (phantoms), and
+ * scan segments that read differently without a row that says it changed
+ * (unattributed), as counters. With
+ * AvoidDeadlockLockingTable.anomalySamples above 0 the first that many
+ * uncommitted and non-repeatable reads are also kept, as execution and tid,
+ * for a closer look; anything
+ * past that is only counted, so a run with millions of anomalies holds the
+ * same few arrays as one without.
+ */
+final class ReadAnomalies {
+    private final int samples = AvoidDeadlockLockingTable.anomalySamples;
+    private long uncommitted, nonRepeatable, phantoms, unattributed;
+    private int[] uncommittedSamples; // execution, tid, modified_by per sample
+    private int[] nonRepeatableSamples; // execution, tid per sample
+
+    void uncommitted(final int numExecutions, final int tid, final int modified_by) {
+        if (uncommitted < samples) {
+            if (uncommittedSamples == null) {
+                uncommittedSamples = new int[samples * 3];
+            }
+            final int i = (int) uncommitted * 3;
+            uncommittedSamples[i] = numExecutions;
+            uncommittedSamples[i + 1] = tid;
+            uncommittedSamples[i + 2] = modified_by;
+        }
+        uncommitted++;
+    }
+
+    void nonRepeatable(final int numExecutions, final int tid) {
+        if (nonRepeatable < samples) {
+            if (nonRepeatableSamples == null) {
+                nonRepeatableSamples = new int[samples * 2];
+            }
+            final int i = (int) nonRepeatable * 2;
+            nonRepeatableSamples[i] = numExecutions;
+            nonRepeatableSamples[i + 1] = tid;
+        }
+        nonRepeatable++;
+    }
+
+    void phantom() {
+        phantoms++;
+    }
+
+    void unattributedSegment() {
+        unattributed++;
+    }
+
+    long uncommitted() {
+        return uncommitted;
+    }
+
+    long nonRepeatable() {
+        return nonRepeatable;
+    }
+
+    long phantoms() {
+        return phantoms;
+    }
+
+    long unattributed() {
+        return unattributed;
+    }
+
+    /** Appends the other anomalies after these, keeping samples in the order they were found. */
+    void add(final ReadAnomalies other) {
+        final long u = Math.min(other.uncommitted, samples);
+        for (int i = 0; i < u; i++) {
+            uncommitted(other.uncommittedSamples[i * 3], other.uncommittedSamples[i * 3 + 1], other.uncommittedSamples[i * 3 + 2]);
+        }
+        uncommitted += other.uncommitted - u;
+        final long n = Math.min(other.nonRepeatable, samples);
+        for (int i = 0; i < n; i++) {
+            nonRepeatable(other.nonRepeatableSamples[i * 2], other.nonRepeatableSamples[i * 2 + 1]);
+        }
+        nonRepeatable += other.nonRepeatable - n;
+        phantoms += other.phantoms;
+        unattributed += other.unattributed;
+    }
+
+    /** One line per kept sample. */
+    void printSamples() {
+        for (int i = 0; i < Math.min(uncommitted, samples); i++) {
+            System.out.println("Seeing non comitted values of task " + uncommittedSamples[i * 3 + 2] + " at " + uncommittedSamples[i * 3 + 1]
+                    + " in execution " + uncommittedSamples[i * 3]);
+        }
+        for (int i = 0; i < Math.min(nonRepeatable, samples); i++) {
+            System.out.println("Found non-repeatable read at " + nonRepeatableSamples[i * 2 + 1] + " in execution " + nonRepeatableSamples[i * 2]);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Replays a crash, a restart, a commit and a second crash against a logged
+ * table and checks that rows undone at the first recovery stay undone at the
+ * second, although the same task commits in between. A crash is a table that
+ * is simply abandoned after its log has been flushed.
+ */
+public class RecoveryCheck {
+    private static final int NUM_TUPLES = 1000;
+    private static final int TASK = 0;
+
+    public static void main(String[] args) throws IOException {
+        final Path log = Files.createTempFile("recovery-check", ".log");
+        AvoidDeadlockLockingTable.logFile = log;
+        AvoidDeadlockLockingTable.checkpointFile = null;
+        AvoidDeadlockLockingTable.ADDITIONAL_WRITE_COST = 0;
+        try {
+            AvoidDeadlockLockingTable first = new AvoidDeadlockLockingTable(AvoidDeadlockLockingTable.READ_COMMITED, NUM_TUPLES);
+            final double original1 = first.getValue(1), original2 = first.getValue(2);
+            final UndoLog undo = new UndoLog(4);
+            first.update(1, TASK, -1.0, undo);
+            first.update(2, TASK, -2.0, undo);
+            first.wal.flush(); // crash before the commit
+
+            AvoidDeadlockLockingTable second = new AvoidDeadlockLockingTable(AvoidDeadlockLockingTable.READ_COMMITED, NUM_TUPLES);
+            check("first recovery undoes the loser", second.getValue(1) == original1 && second.getValue(2) == original2);
+            second.update(3, TASK, -3.0, new UndoLog(4));
+            second.commit(TASK, new AtomicBoolean()); // crash right after the commit
+
+            AvoidDeadlockLockingTable third = new AvoidDeadlockLockingTable(AvoidDeadlockLockingTable.READ_COMMITED, NUM_TUPLES);
+            check("second recovery keeps the loser undone", third.getValue(1) == original1 && third.getValue(2) == original2);
+            check("second recovery redoes the later commit", third.getValue(3) == -3.0 && third.getModifiedBy(3) == TASK);
+        } finally {
+            AvoidDeadlockLockingTable.logFile = null;
+            Files.deleteIfExists(log);
+        }
+        System.out.println("Recovery check passed");
+    }
+
+    private static void check(final String what, final boolean ok) {
+        System.out.println((ok ? "ok:     " : "FAILED: ") + what);
+        if (!ok) {
+            throw new IllegalStateException("Recovery check failed: " + what);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Checks that the second pass of a full scan read the same values as the
+ * first, in memory that does not grow with the table.
+ *
+ * The table is cut into at most MAX_SEGMENTS page aligned segments. The first
+ * pass adds a checksum of every value it reads to its segment, the second pass
+ * subtracts the checksum of what it reads, so a segment whose sum is not zero
+ * afterwards read something different. Each row's term is its value bits times
+ * an odd number, which makes a single changed row always show up.
+ *
+ * Only in such a segment are rows looked at one by one: the ones the table
+ * marks as changed after the first pass began and before the second one
+ * ended are the non-repeatable reads; what writers change while verify runs
+ * is not. The epochs cannot tell when within a pass a row changed, so rows of
+ * the segment that were changed during the first pass before it read them,
+ * during the second after it read them, or changed and rolled back, still
+ * count, and at READ_COMMITED and below a changed segment may report a few
+ * rows too many. A segment that differs although no row in it changed in
+ * that window is counted apart, as unattributed, rather than charged to a
+ * row. A segment that reads the same in both passes reports nothing, which
+ * is what counts at the stronger levels.
+ */
+final class RepeatableReadCheck {
+    static final int MAX_SEGMENTS = 1024;
+
+    private final AvoidDeadlockLockingTable table;
+    private final int segmentShift;
+    private final AtomicLongArray sums; // adders from fork/join workers that share a segment
+    private int since; // scan epoch the first pass started in
+    private int until; // scan epoch started right after the second pass
+
+    RepeatableReadCheck(final AvoidDeadlockLockingTable table) {
+        this.table = table;
+        final int perSegment = (table.numTuples + MAX_SEGMENTS - 1) / MAX_SEGMENTS;
+        this.segmentShift = Math.max(AvoidDeadlockLockingTable.PAGE_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, perSegment) - 1));
+        this.sums = new AtomicLongArray(Math.max(1, (table.numTuples + (1 << segmentShift) - 1) >>> segmentShift));
+    }
+
+    /** Starts the first pass; everything the table changes from now on is newer than it. */
+    void begin() {
+        for (int i = 0; i < sums.length(); i++) {
+            sums.set(i, 0);
+        }
+        since = table.scanEpoch.incrementAndGet();
+    }
+
+    static long term(final int tid, final double value) {
+        return Double.doubleToRawLongBits(value) * (2L * tid + 1);
+    }
+
+    /** Adds what pass 1 or 2 read of one row. */
+    void add(final int pass, final int tid, final double value) {
+        add(pass, tid, term(tid, value));
+    }
+
+    /** Adds a checksum of rows that all lie in the segment of tid, e.g. from ScanKernels.checksum. */
+    void add(final int pass, final int tid, final long checksum) {
+        sums.getAndAdd(tid >>> segmentShift, pass == 1 ? checksum : -checksum);
+    }
+
+    /** After the second pass: records the rows of every segment that did not read the same twice. */
+    void verify(final ReadAnomalies found, final int numExecutions, final boolean displayErrors) {
+        until = table.scanEpoch.incrementAndGet();
+        for (int segment = 0; segment < sums.length(); segment++) {
+            if (sums.get(segment) == 0) {
+                continue;
+            }
+            final int from = segment << segmentShift;
+            final int to = Math.min(table.numTuples, from + (1 << segmentShift));
+            final long before = found.nonRepeatable();
+            for (int tid = from; tid < to; tid++) {
+                if (table.changedSince(tid, since) && !table.changedSince(tid, until)) {
+                    if (displayErrors) System.err.println("Found non-repeatable read at " + tid);
+                    found.nonRepeatable(numExecutions, tid);
+                }
+            }
+            if (found.nonRepeatable() == before) {
+                if (displayErrors) System.err.println("Found a changed segment at " + from + " without a changed row");
+                found.unattributedSegment();
+            }
+        }
+    }
+}
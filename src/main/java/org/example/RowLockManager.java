@@ -0,0 +1,95 @@
+package org.example;
+
+/**
+ * Row read/write locks packed into one long per row. The low bits hold the
+ * number of readers, bit 62 is the writer bit and the top bit tells the
+ * releasing thread that somebody is parked on the row.
+ *
+ * Uncontended lock and unlock are a single CAS, so the lock table costs 8
+ * bytes per row instead of one Semaphore object per row.
+ */
+final class RowLockManager extends LockSpace {
+    private static final long WRITER = 1L << 62;
+    private static final long READERS = WRITER - 1;
+
+    RowLockManager(final int numTuples, final TransactionSlots slots) {
+        super(numTuples, slots);
+    }
+
+    boolean tryReadLock(final int tid) {
+        long s;
+        while (((s = state.get(tid)) & WRITER) == 0) {
+            if (state.compareAndSet(tid, s, s + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean tryWriteLock(final int tid) {
+        long s;
+        while (((s = state.get(tid)) & (WRITER | READERS)) == 0) {
+            if (state.compareAndSet(tid, s, s | WRITER)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void unlockRead(final int tid) {
+        long s, n;
+        do {
+            s = state.get(tid);
+            if ((s & READERS) == 0) {
+                return;
+            }
+            n = s - 1;
+            if ((n & READERS) == 0) {
+                n &= ~WAITERS;
+            }
+        } while (!state.compareAndSet(tid, s, n));
+        if ((s & WAITERS) != 0 && (n & WAITERS) == 0) {
+            signal(tid);
+        }
+    }
+
+    void unlockWrite(final int tid) {
+        long s;
+        do {
+            s = state.get(tid);
+            if ((s & WRITER) == 0) {
+                return;
+            }
+        } while (!state.compareAndSet(tid, s, s & ~(WRITER | WAITERS)));
+        if ((s & WAITERS) != 0) {
+            signal(tid);
+        }
+    }
+
+    @Override
+    boolean tryLock(final int tid, final LockMode mode) {
+        return mode == LockMode.X ? tryWriteLock(tid) : tryReadLock(tid);
+    }
+
+    @Override
+    void unlock(final int tid, final LockMode mode) {
+        if (mode == LockMode.X) {
+            unlockWrite(tid);
+        } else {
+            unlockRead(tid);
+        }
+    }
+
+    @Override
+    protected boolean admits(final long s, final LockMode mode) {
+        return (s & (mode == LockMode.X ? WRITER | READERS : WRITER)) == 0;
+    }
+
+    boolean isWriteLocked(final int tid) {
+        return (state.get(tid) & WRITER) != 0;
+    }
+
+    int readerCount(final int tid) {
+        return (int) (state.get(tid) & READERS);
+    }
+}
@@ -0,0 +1,57 @@
+package org.example;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Filters a range of rows down to the ones a scan has to look at row by row,
+ * and sums up the rest. Most rows were never modified, so the checks in
+ * AvoidDeadlockReader only need to run for the candidates a kernel returns;
+ * whether a range reads the same in both passes is decided by its checksum.
+ *
+ * The Vector API version is used when the jdk.incubator.vector module is
+ * present (run with --add-modules jdk.incubator.vector); otherwise the scalar
+ * kernels below are used.
+ */
+abstract class ScanKernels {
+    static final ScanKernels INSTANCE = load();
+
+    /** Writes the rows in [from, to) with MODIFIED_BY != NOT_MODIFIED to out and returns their count. */
+    abstract int modified(MemorySegment modifiedBy, int from, int to, int[] out);
+
+    /** The sum of RepeatableReadCheck.term over the rows in [from, to). */
+    abstract long checksum(MemorySegment values, int from, int to);
+
+    private static ScanKernels load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (ScanKernels) Class.forName("org.example.VectorScanKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Vector scan kernels not available, using scalar kernels: " + e);
+            }
+        }
+        return new Scalar();
+    }
+
+    static final class Scalar extends ScanKernels {
+        @Override
+        int modified(final MemorySegment modifiedBy, final int from, final int to, final int[] out) {
+            int count = 0;
+            for (int tid = from; tid < to; tid++) {
+                if (modifiedBy.getAtIndex(ValueLayout.JAVA_INT, tid) != AvoidDeadlockLockingTable.NOT_MODIFIED) {
+                    out[count++] = tid;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        long checksum(final MemorySegment values, final int from, final int to) {
+            long sum = 0;
+            for (int tid = from; tid < to; tid++) {
+                sum += values.getAtIndex(ValueLayout.JAVA_LONG, tid) * (2L * tid + 1);
+            }
+            return sum;
+        }
+    }
+}
@@ -1,43 +1,46 @@
 package org.example;
 
 import java.util.ArrayList;
+import java.util.SplittableRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.Random;
 
 public abstract class Transaction implements Runnable {
-	public static final double MULTI_POINT_THRESHOLD = 0.3;
-	public static final double FULL_SCAN_THRESHOLD = 0.7;
+	static final long BASE_BACKOFF_MS = 1;
+	static final long MAX_BACKOFF_MS = 100;
 
-	protected TransactionType type;
+	protected final TransactionType type;
 	public long startTime;
 	public ArrayList<Integer> myReadLocks = new ArrayList<Integer>();
 	public ArrayList<Integer> myWriteLocks = new ArrayList<Integer>();
+	public ArrayList<Integer> myPageLocks = new ArrayList<Integer>(); // page << 3 | mode
+	public ArrayList<Integer> myRangeLocks = new ArrayList<Integer>(); // value range << 3 | mode
+	public ArrayList<LockMode> myTableLocks = new ArrayList<LockMode>();
 	AtomicBoolean isRolledBack = new AtomicBoolean(false);
+	private volatile boolean abortRequested = false;
+	private final ArrayList<Runnable> abortListeners = new ArrayList<>(1); // queued asynchronous lock requests
 	private static final AtomicLong timestampCounter = new AtomicLong(0);
-	private final long timestamp;
-	protected static final Random random = new Random();
+	private volatile long timestamp; // kept across restarts, renewed for the next transaction of a looping task
+	volatile int holderSlot = -1; // assigned and freed by TransactionSlots; read by threads granting it locks
+	protected final SplittableRandom random; // this transaction's own stream, only used by the thread running it
 
 	public enum TransactionType {
 		MULTI_POINT_READ,
 		FULL_SCAN_READ,
-		WRITE
+		WRITE,
+		RANGE_READ,
+		AGGREGATE_READ
 	}
 
+	/** A transaction outside of any workload, e.g. one driven by a benchmark; it has no type. */
 	public Transaction() {
-		this.timestamp = timestampCounter.incrementAndGet();
-		determineTransactionType();
+		this(null, new SplittableRandom());
 	}
 
-	protected void determineTransactionType() {
-		double p = random.nextDouble();
-		if (p < MULTI_POINT_THRESHOLD) {
-			type = TransactionType.MULTI_POINT_READ;
-		} else if (p < FULL_SCAN_THRESHOLD) {
-			type = TransactionType.FULL_SCAN_READ;
-		} else {
-			type = TransactionType.WRITE;
-		}
+	protected Transaction(final TransactionType type, final SplittableRandom random) {
+		this.timestamp = timestampCounter.incrementAndGet();
+		this.type = type;
+		this.random = random;
 	}
 
 	public TransactionType getType() {
@@ -53,9 +56,32 @@ public abstract class Transaction implements Runnable {
 		return this.timestamp;
 	}
 
+	/**
+	 * Makes the transaction young again once it has finished and the task goes
+	 * on with a new one. Only restarts keep their timestamp; a task that kept it
+	 * for good would stay the oldest forever and starve every younger one.
+	 * Call it while holding no locks.
+	 */
+	void renewTimestamp() {
+		this.timestamp = timestampCounter.incrementAndGet();
+	}
+
+	/** Draws a new timestamp, e.g. a commit timestamp, from the same counter as transaction start. */
+	static long nextTimestamp() {
+		return timestampCounter.incrementAndGet();
+	}
+
+	static long currentTimestamp() {
+		return timestampCounter.get();
+	}
+
 	public boolean begin_of_transaction() {
 		myReadLocks.clear();
 		myWriteLocks.clear();
+		myPageLocks.clear();
+		myRangeLocks.clear();
+		myTableLocks.clear();
+		abortRequested = false;
 		return true;
 	}
 
@@ -77,6 +103,147 @@ public abstract class Transaction implements Runnable {
 		myWriteLocks.add(id);
 	}
 
+	/** Returns false if the transaction did not hold the lock, e.g. because a table lock covered it. */
+	public boolean readLockReleased(final int id){
+		return releaseFrom(myReadLocks, id);
+	}
+
+	public boolean writeLockReleased(final int id){
+		return releaseFrom(myWriteLocks, id);
+	}
+
+	// Locks are normally released in the order they were taken or right after being taken
+	private static boolean releaseFrom(ArrayList<Integer> locks, final int id) {
+		int last = locks.size() - 1;
+		if (last >= 0 && locks.get(last) == id) {
+			locks.remove(last);
+			return true;
+		}
+		return locks.remove(Integer.valueOf(id));
+	}
+
+	public ArrayList<Integer> myPageLocks() {
+		return this.myPageLocks;
+	}
+
+	public ArrayList<LockMode> myTableLocks() {
+		return this.myTableLocks;
+	}
+
+	void tableLockGranted(final LockMode mode) {
+		myTableLocks.add(mode);
+	}
+
+	void tableLockConverted(final LockMode from, final LockMode to) {
+		myTableLocks.set(myTableLocks.indexOf(from), to);
+	}
+
+	/** True if the held table locks include the mode, or IX when IS is asked for. */
+	boolean holdsTableLock(final LockMode mode) {
+		return myTableLocks.contains(mode) || (mode == LockMode.IS && myTableLocks.contains(LockMode.IX));
+	}
+
+	boolean holdsTableLockCovering(final LockMode mode) {
+		for (LockMode held : myTableLocks) {
+			if (held == mode || held.covers(mode)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void pageLockGranted(final int page, final LockMode mode) {
+		myPageLocks.add(page << 3 | mode.ordinal());
+	}
+
+	boolean holdsPageLock(final int page, final LockMode mode) {
+		// Scans and writers mostly revisit the page they locked last
+		for (int i = myPageLocks.size() - 1; i >= 0; i--) {
+			int pageLock = myPageLocks.get(i);
+			if (pageOf(pageLock) == page && (pageModeOf(pageLock) == mode || pageModeOf(pageLock) == LockMode.IX)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public ArrayList<Integer> myRangeLocks() {
+		return this.myRangeLocks;
+	}
+
+	void rangeLockGranted(final int range, final LockMode mode) {
+		myRangeLocks.add(range << 3 | mode.ordinal());
+	}
+
+	/** Exact mode only; readers hold value ranges in S and writers in IX, never one for the other. */
+	boolean holdsRangeLock(final int range, final LockMode mode) {
+		return myRangeLocks.contains(range << 3 | mode.ordinal());
+	}
+
+	static int pageOf(final int pageLock) {
+		return pageLock >>> 3;
+	}
+
+	static LockMode pageModeOf(final int pageLock) {
+		return LockMode.VALUES[pageLock & 7];
+	}
+
+	/** Asks the transaction to abort at its next lock request. */
+	public void requestAbort() {
+		this.abortRequested = true;
+		final Runnable[] listeners;
+		synchronized (abortListeners) {
+			if (abortListeners.isEmpty()) {
+				return;
+			}
+			listeners = abortListeners.toArray(new Runnable[0]);
+		}
+		for (Runnable listener : listeners) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * Runs the listener once the transaction is asked to abort, e.g. to withdraw
+	 * a queued lock request nobody else would fail; right away if it already
+	 * was. It may run more than once.
+	 */
+	void addAbortListener(final Runnable listener) {
+		synchronized (abortListeners) {
+			abortListeners.add(listener);
+		}
+		if (this.abortRequested) {
+			listener.run();
+		}
+	}
+
+	void removeAbortListener(final Runnable listener) {
+		synchronized (abortListeners) {
+			abortListeners.remove(listener);
+		}
+	}
+
+	public boolean isAbortRequested() {
+		return this.abortRequested;
+	}
+
+	/** Throws if the transaction was asked to abort, e.g. wounded by an older one. */
+	public void checkAbort() {
+		if (this.abortRequested) {
+			throw new TransactionAbortedException(this);
+		}
+	}
+
+	/** Sleeps before a restart; the cap doubles per attempt up to MAX_BACKOFF_MS. */
+	protected void backoff(final int attempt) {
+		long cap = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt, 16));
+		try {
+			Thread.sleep(1 + (long) (random.nextDouble() * cap));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	public boolean isRolledBack() {
 		return this.isRolledBack.get();
 	}
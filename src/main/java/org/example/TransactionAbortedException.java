@@ -0,0 +1,18 @@
+package org.example;
+
+/**
+ * Thrown out of a lock request when the requesting transaction was chosen as a
+ * deadlock victim. The transaction is expected to roll back.
+ */
+public class TransactionAbortedException extends RuntimeException {
+    private final transient Transaction transaction;
+
+    public TransactionAbortedException(Transaction transaction) {
+        super("Transaction " + transaction.getTimestamp() + " aborted");
+        this.transaction = transaction;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+}
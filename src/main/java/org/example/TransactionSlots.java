@@ -0,0 +1,76 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out a small integer slot per transaction on its first lock request,
+ * so lock bookkeeping can refer to transactions by int instead of by object.
+ * One instance is shared by all lock granularities of a table.
+ *
+ * A transaction gives its slot back once it holds and waits for nothing any
+ * more, and freed slots are handed out again first, so the slots in use stay
+ * bounded by the transactions locking at the same time rather than growing
+ * with every transaction object ever seen.
+ */
+final class TransactionSlots {
+    volatile Transaction[] bySlot = new Transaction[64];
+    private int nextSlot = 0;
+    private int[] freeSlots = new int[64];
+    private int numFree = 0;
+    private final ReentrantLock lock = new ReentrantLock(); // not synchronized, which would pin virtual threads
+
+    int slotOf(final Transaction t) {
+        int slot = t.holderSlot;
+        if (slot < 0) {
+            slot = register(t);
+        }
+        return slot;
+    }
+
+    private int register(final Transaction t) {
+        lock.lock();
+        try {
+            if (t.holderSlot >= 0) {
+                return t.holderSlot;
+            }
+            int slot = numFree > 0 ? freeSlots[--numFree] : nextSlot++;
+            Transaction[] transactions = this.bySlot;
+            if (slot == transactions.length) {
+                transactions = Arrays.copyOf(transactions, transactions.length * 2);
+            }
+            transactions[slot] = t;
+            this.bySlot = transactions;
+            t.holderSlot = slot;
+            return slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees the transaction's slot. Only call it once no holder or waiter entry
+     * refers to the slot, i.e. after every lock has been released and no
+     * request is outstanding; a later lock request registers it again.
+     */
+    void release(final Transaction t) {
+        if (t.holderSlot < 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            final int slot = t.holderSlot;
+            if (slot < 0) {
+                return;
+            }
+            bySlot[slot] = null;
+            if (numFree == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+            }
+            freeSlots[numFree++] = slot;
+            t.holderSlot = -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Columnar storage for the table. DATA_ID, DATA_VALUE and MODIFIED_BY are kept
+ * in separate dense primitive columns, so a full scan walks sequential memory
+ * instead of chasing one tiny double[3] per row.
+ *
+ * The columns are memory segments, either fresh off-heap memory or a private
+ * mapping of a checkpoint file. A mapped table is paged in on first touch and
+ * changes stay in memory, so opening even a large checkpoint is immediate.
+ *
+ * Checkpoint layout, in native byte order: a 64 byte header (magic, number of
+ * tuples, log position recovery starts from), then the id, value and
+ * modified_by columns, each starting at a multiple of 8.
+ */
+final class TupleStore {
+    private static final long MAGIC = 0x5441534b35434b50L;
+    private static final int HEADER_SIZE = 64;
+
+    final int numTuples;
+    /** Where log replay starts for a store opened from a checkpoint, 0 otherwise. */
+    final long checkpointLsn;
+    private final MemorySegment ids;
+    private final MemorySegment values;
+    private final MemorySegment modifiedBy;
+
+    TupleStore(final int numTuples) {
+        this(numTuples, 0, Arena.ofAuto().allocate(layoutSize(numTuples), 8), 0);
+    }
+
+    private TupleStore(final int numTuples, final long checkpointLsn, final MemorySegment data, final long offset) {
+        this.numTuples = numTuples;
+        this.checkpointLsn = checkpointLsn;
+        this.ids = data.asSlice(offset, (long) numTuples * Integer.BYTES);
+        this.values = data.asSlice(offset + valuesOffset(numTuples), (long) numTuples * Double.BYTES);
+        this.modifiedBy = data.asSlice(offset + modifiedByOffset(numTuples), (long) numTuples * Integer.BYTES);
+    }
+
+    private static long valuesOffset(final int numTuples) {
+        return ((long) numTuples * Integer.BYTES + 7) & ~7L;
+    }
+
+    private static long modifiedByOffset(final int numTuples) {
+        return valuesOffset(numTuples) + (long) numTuples * Double.BYTES;
+    }
+
+    private static long layoutSize(final int numTuples) {
+        return modifiedByOffset(numTuples) + (long) numTuples * Integer.BYTES;
+    }
+
+    /** Maps a checkpoint copy-on-write; nothing is read until a row is touched. */
+    static TupleStore open(final Path file) {
+        // PRIVATE mappings need a writable channel, but the file itself is never written
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getLong() != MAGIC) {
+                throw new IllegalStateException(file + " is not a table checkpoint");
+            }
+            int numTuples = header.getInt();
+            long checkpointLsn = header.getLong(16);
+            MemorySegment data = channel.map(FileChannel.MapMode.PRIVATE, 0, HEADER_SIZE + layoutSize(numTuples), Arena.ofAuto());
+            return new TupleStore(numTuples, checkpointLsn, data, HEADER_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open checkpoint " + file, e);
+        }
+    }
+
+    /**
+     * Copies the columns as they are right now next to the file and returns the
+     * copy, to be put in place with installCheckpoint. The copy is not
+     * synchronized with writers; replaying the log from checkpointLsn makes it
+     * consistent.
+     */
+    Path writeCheckpoint(final Path file, final long checkpointLsn) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+            header.putLong(MAGIC).putInt(numTuples).putInt(0).putLong(checkpointLsn);
+            header.clear();
+            writeFully(channel, header, 0);
+            writeFully(channel, ids.asByteBuffer(), HEADER_SIZE);
+            writeFully(channel, values.asByteBuffer(), HEADER_SIZE + valuesOffset(numTuples));
+            writeFully(channel, modifiedBy.asByteBuffer(), HEADER_SIZE + modifiedByOffset(numTuples));
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write checkpoint " + tmp, e);
+        }
+        return tmp;
+    }
+
+    static void installCheckpoint(final Path tmp, final Path file) {
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot install checkpoint " + file, e);
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining()) {
+            position += channel.write(b, position);
+        }
+    }
+
+    int getId(final int tid) {
+        return this.ids.getAtIndex(ValueLayout.JAVA_INT, tid);
+    }
+
+    double getValue(final int tid) {
+        return this.values.getAtIndex(ValueLayout.JAVA_DOUBLE, tid);
+    }
+
+    int getModifiedBy(final int tid) {
+        return this.modifiedBy.getAtIndex(ValueLayout.JAVA_INT, tid);
+    }
+
+    /** The raw value column, read by the scan kernels. */
+    MemorySegment values() {
+        return this.values;
+    }
+
+    MemorySegment modifiedBy() {
+        return this.modifiedBy;
+    }
+
+    void set(final int tid, final double value, final int modified_by) {
+        this.values.setAtIndex(ValueLayout.JAVA_DOUBLE, tid, value);
+        this.modifiedBy.setAtIndex(ValueLayout.JAVA_INT, tid, modified_by);
+    }
+
+    void init(final int tid, final double value) {
+        this.ids.setAtIndex(ValueLayout.JAVA_INT, tid, tid);
+        this.values.setAtIndex(ValueLayout.JAVA_DOUBLE, tid, value);
+        this.modifiedBy.setAtIndex(ValueLayout.JAVA_INT, tid, AvoidDeadlockLockingTable.NOT_MODIFIED);
+    }
+}
@@ -0,0 +1,54 @@
+package org.example;
+
+import java.util.Arrays;
+
+/**
+ * Before images of a writer's updates in the current execution: tid, old
+ * value and old modified_by of every update, oldest first, in parallel
+ * primitive arrays. Each entry names its own row, so undoing does not depend
+ * on the order rows were locked in. The arrays grow to the largest write set
+ * and are reused by every later execution, so recording an update does not
+ * allocate.
+ */
+final class UndoLog {
+    private int[] tids;
+    private double[] values;
+    private int[] modifiedBy;
+    private int size;
+
+    UndoLog(final int capacity) {
+        final int n = Math.max(1, capacity);
+        this.tids = new int[n];
+        this.values = new double[n];
+        this.modifiedBy = new int[n];
+    }
+
+    void record(final int tid, final double oldValue, final int oldModifiedBy) {
+        if (size == tids.length) {
+            final int n = size * 2;
+            tids = Arrays.copyOf(tids, n);
+            values = Arrays.copyOf(values, n);
+            modifiedBy = Arrays.copyOf(modifiedBy, n);
+        }
+        tids[size] = tid;
+        values[size] = oldValue;
+        modifiedBy[size] = oldModifiedBy;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Puts every recorded row back, newest first, so a row updated twice ends up with its oldest image, and empties the log. */
+    void undo(final AvoidDeadlockLockingTable table) {
+        for (int i = size - 1; i >= 0; i--) {
+            table.restoreOldTupleValues(tids[i], values[i], modifiedBy[i]);
+        }
+        size = 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
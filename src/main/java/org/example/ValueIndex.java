@@ -0,0 +1,47 @@
+package org.example;
+
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Ordered secondary index on DATA_VALUE: a concurrent skip list of
+ * (value, tid) entries, so a range of values is found without touching the
+ * rows outside it. The table moves a row's entry whenever it changes the
+ * row's value. Entries are kept for the newest value only, which SNAPSHOT
+ * readers cannot use.
+ *
+ * The index itself takes no locks and a moving row is briefly in neither
+ * place. A range scan that must not miss rows holds the value range locks of
+ * AvoidDeadlockLockingTable, which keep writers out of the range; otherwise it
+ * reads each row and checks its value again.
+ */
+final class ValueIndex {
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>();
+
+    record Entry(double value, int tid) implements Comparable<Entry> {
+        @Override
+        public int compareTo(final Entry o) {
+            int c = Double.compare(value, o.value);
+            return c != 0 ? c : Integer.compare(tid, o.tid);
+        }
+    }
+
+    /** Indexes every row of the store as it is now. */
+    ValueIndex(final TupleStore store) {
+        for (int tid = 0; tid < store.numTuples; tid++) {
+            entries.add(new Entry(store.getValue(tid), tid));
+        }
+    }
+
+    void move(final int tid, final double oldValue, final double newValue) {
+        if (Double.compare(oldValue, newValue) != 0) {
+            entries.remove(new Entry(oldValue, tid));
+            entries.add(new Entry(newValue, tid));
+        }
+    }
+
+    /** The entries with lo <= value <= hi, in value order; a live view. */
+    NavigableSet<Entry> range(final double lo, final double hi) {
+        return entries.subSet(new Entry(lo, Integer.MIN_VALUE), true, new Entry(hi, Integer.MAX_VALUE), true);
+    }
+}
@@ -0,0 +1,63 @@
+package org.example;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Scan kernels on the Vector API. The checksum reads the double column as
+ * longs and keeps one running sum per lane, added up at the end; the sum wraps
+ * the same way in any order, so it equals the scalar one. Only loaded by
+ * ScanKernels when the module is present.
+ */
+final class VectorScanKernels extends ScanKernels {
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS_WIDE = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    int modified(final MemorySegment modifiedBy, final int from, final int to, final int[] out) {
+        int count = 0;
+        int tid = from;
+        for (int bound = from + INTS_WIDE.loopBound(to - from); tid < bound; tid += INTS_WIDE.length()) {
+            long bits = IntVector.fromMemorySegment(INTS_WIDE, modifiedBy, (long) tid * Integer.BYTES, ByteOrder.nativeOrder())
+                    .compare(VectorOperators.NE, AvoidDeadlockLockingTable.NOT_MODIFIED).toLong();
+            count = appendLanes(bits, tid, out, count);
+        }
+        for (; tid < to; tid++) {
+            if (modifiedBy.getAtIndex(ValueLayout.JAVA_INT, tid) != AvoidDeadlockLockingTable.NOT_MODIFIED) {
+                out[count++] = tid;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    long checksum(final MemorySegment values, final int from, final int to) {
+        final LongVector step = LongVector.broadcast(LONGS, 2L * LONGS.length());
+        LongVector factors = LongVector.broadcast(LONGS, 2L * from + 1).add(LongVector.zero(LONGS).addIndex(2));
+        LongVector sums = LongVector.zero(LONGS);
+        int tid = from;
+        for (int bound = from + LONGS.loopBound(to - from); tid < bound; tid += LONGS.length()) {
+            sums = sums.add(LongVector.fromMemorySegment(LONGS, values, (long) tid * Long.BYTES, ByteOrder.nativeOrder()).mul(factors));
+            factors = factors.add(step);
+        }
+        long sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; tid < to; tid++) {
+            sum += values.getAtIndex(ValueLayout.JAVA_LONG, tid) * (2L * tid + 1);
+        }
+        return sum;
+    }
+
+    private static int appendLanes(long bits, final int base, final int[] out, int count) {
+        while (bits != 0) {
+            out[count++] = base + Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,150 @@
+package org.example;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Multi-version support for the SNAPSHOT isolation level.
+ *
+ * The newest committed version of every row stays in the TupleStore, tagged
+ * with its commit timestamp. Older versions hang off a per-row chain, newest
+ * first. Readers pick the newest version whose commit timestamp is not after
+ * their start timestamp and never take a lock. Chains are trimmed on every
+ * install below the low-watermark, the oldest start timestamp of any running
+ * snapshot.
+ */
+final class VersionStore {
+    /** Marks a row whose new version is being installed by a committing writer. */
+    static final long PENDING = Long.MAX_VALUE;
+    private static final VarHandle COMMIT_TS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final TupleStore store;
+    private final long[] commitTs;
+    private final AtomicReferenceArray<Version> history;
+    private final ConcurrentHashMap<Transaction, Long> activeSnapshots = new ConcurrentHashMap<>();
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    VersionStore(final TupleStore store) {
+        this.store = store;
+        this.commitTs = new long[store.numTuples];
+        this.history = new AtomicReferenceArray<>(store.numTuples);
+    }
+
+    long beginSnapshot(final Transaction t) {
+        snapshotLock.lock();
+        try {
+            long startTs = Transaction.currentTimestamp();
+            activeSnapshots.put(t, startTs);
+            return startTs;
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    void endSnapshot(final Transaction t) {
+        activeSnapshots.remove(t);
+    }
+
+    /** No running snapshot can see a version older than the newest one committed at or before this. */
+    long lowWatermark() {
+        snapshotLock.lock();
+        try {
+            long watermark = Transaction.currentTimestamp();
+            for (long startTs : activeSnapshots.values()) {
+                watermark = Math.min(watermark, startTs);
+            }
+            return watermark;
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Installs new versions of the given rows. The caller must hold the write
+     * locks of all rows. Every row is first marked PENDING so that no reader
+     * whose start timestamp follows the commit timestamp can miss a version;
+     * the commit timestamp is drawn afterwards and the rows are published.
+     */
+    long install(final int[] tids, final double[] new_values, final int task, final AtomicBoolean comitted) {
+        final long watermark = lowWatermark();
+        for (int tid : tids) {
+            // If the version being replaced is already visible to every snapshot,
+            // nothing older than it can ever be read again.
+            Version older = commitTs[tid] <= watermark ? null : history.get(tid);
+            trim(older, watermark);
+            history.set(tid, new Version(store.getValue(tid), store.getModifiedBy(tid), commitTs[tid], older));
+            COMMIT_TS.setVolatile(commitTs, tid, PENDING);
+        }
+        final long cts = Transaction.nextTimestamp();
+        comitted.set(true);
+        for (int i = 0; i < tids.length; i++) {
+            store.set(tids[i], new_values[i], task);
+            COMMIT_TS.setVolatile(commitTs, tids[i], cts);
+        }
+        return cts;
+    }
+
+    /** Reads the version of the row visible at startTs into the cursor. */
+    void read(final int tid, final long startTs, final Cursor cursor) {
+        while (true) {
+            long c1 = (long) COMMIT_TS.getVolatile(commitTs, tid);
+            if (c1 == PENDING) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (c1 <= startTs) {
+                double value = store.getValue(tid);
+                int modified_by = store.getModifiedBy(tid);
+                VarHandle.loadLoadFence();
+                if ((long) COMMIT_TS.getVolatile(commitTs, tid) == c1) {
+                    cursor.value = value;
+                    cursor.modifiedBy = modified_by;
+                    return;
+                }
+                continue;
+            }
+            for (Version v = history.get(tid); v != null; v = v.next) {
+                if (v.commitTs <= startTs) {
+                    cursor.value = v.value;
+                    cursor.modifiedBy = v.modifiedBy;
+                    return;
+                }
+            }
+            throw new IllegalStateException("Version of tuple " + tid + " visible at " + startTs + " was garbage collected");
+        }
+    }
+
+    /** Keeps the newest version at or below the watermark and drops everything older. */
+    private static void trim(Version v, final long watermark) {
+        for (; v != null; v = v.next) {
+            if (v.commitTs <= watermark) {
+                v.next = null;
+                return;
+            }
+        }
+    }
+
+    private static final class Version {
+        final double value;
+        final int modifiedBy;
+        final long commitTs;
+        volatile Version next;
+
+        Version(double value, int modifiedBy, long commitTs, Version next) {
+            this.value = value;
+            this.modifiedBy = modifiedBy;
+            this.commitTs = commitTs;
+            this.next = next;
+        }
+    }
+
+    /** Reader-owned flyweight that receives the visible version of a row. */
+    static final class Cursor {
+        double value;
+        int modifiedBy;
+    }
+}
@@ -0,0 +1,139 @@
+package org.example;
+
+import java.util.HashSet;
+import java.util.SplittableRandom;
+
+/**
+ * What run() asks of a table: the mix of transaction types, how many rows a
+ * writer updates and a multi-point or range reader reads, and how those rows
+ * are chosen.
+ *
+ * Every transaction draws from a SplittableRandom stream of its own, split
+ * off the table's root stream when the transaction is created, so threads
+ * never share a generator. With a seed, a table whose transactions are created
+ * in the same order gets the same transactions touching the same rows; how
+ * they interleave is still up to the scheduler.
+ */
+final class Workload {
+    enum KeyDistribution {
+        UNIFORM,
+        /** Rank r is drawn with probability proportional to 1 / r^zipfTheta; hot keys are spread over the table. */
+        ZIPFIAN,
+        /** hotAccessFraction of all draws go to the first hotKeyFraction of the table. */
+        HOTSPOT
+    }
+
+    double multiPointShare = 0.3;
+    double fullScanShare = 0.4;
+    double rangeReadShare = 0.0; // range reads need the value index
+    double aggregateReadShare = 0.0; // the rest are writers
+    int writeSetSize = 100;
+    int pointReadSize = 2;
+    double rangeReadWidth = 0.001; // share of the value domain a range read covers
+    KeyDistribution keyDistribution = KeyDistribution.UNIFORM;
+    double zipfTheta = 0.99;
+    double hotKeyFraction = 0.01;
+    double hotAccessFraction = 0.9;
+    Long seed = null; // null seeds every table differently; set it to repeat a run
+
+    SplittableRandom rootStream() {
+        return seed == null ? new SplittableRandom() : new SplittableRandom(seed);
+    }
+
+    Transaction.TransactionType nextType(final SplittableRandom random) {
+        final double p = random.nextDouble();
+        if (p < multiPointShare) {
+            return Transaction.TransactionType.MULTI_POINT_READ;
+        } else if (p < multiPointShare + fullScanShare) {
+            return Transaction.TransactionType.FULL_SCAN_READ;
+        } else if (p < multiPointShare + fullScanShare + rangeReadShare) {
+            return Transaction.TransactionType.RANGE_READ;
+        } else if (p < multiPointShare + fullScanShare + rangeReadShare + aggregateReadShare) {
+            return Transaction.TransactionType.AGGREGATE_READ;
+        }
+        return Transaction.TransactionType.WRITE;
+    }
+
+    Keys keys(final int numTuples) {
+        return new Keys(this, numTuples);
+    }
+
+    /** Draws keys in [0, numTuples); holds no state of its own, so threads share it. */
+    static final class Keys {
+        // Any prime above every table size; k * SCRAMBLE mod n then permutes [0, n)
+        private static final long SCRAMBLE = 2_147_483_647L;
+        private static final int DISTINCT_MISSES_PER_KEY = 16;
+
+        private final KeyDistribution distribution;
+        private final int numTuples;
+        private final int hotKeys;
+        private final double hotAccess;
+        // Zipfian after Gray et al., "Quickly generating billion-record synthetic databases"
+        private final double theta, alpha, zetaN, eta;
+
+        private Keys(final Workload w, final int numTuples) {
+            this.numTuples = numTuples;
+            this.hotKeys = (int) Math.max(1, Math.min(numTuples, Math.round(numTuples * w.hotKeyFraction)));
+            this.hotAccess = w.hotAccessFraction;
+            this.distribution = w.keyDistribution == KeyDistribution.HOTSPOT && hotKeys == numTuples ? KeyDistribution.UNIFORM : w.keyDistribution;
+            this.theta = w.zipfTheta;
+            if (distribution == KeyDistribution.ZIPFIAN) {
+                if (!(theta > 0 && theta < 1)) {
+                    throw new IllegalArgumentException("zipfTheta must be in (0, 1), not " + theta);
+                }
+                this.alpha = 1 / (1 - theta);
+                this.zetaN = zeta(numTuples, theta); // one pass over the key space, once per table
+                this.eta = (1 - Math.pow(2.0 / numTuples, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+            } else {
+                this.alpha = this.zetaN = this.eta = 0;
+            }
+        }
+
+        private static double zeta(final long n, final double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        int next(final SplittableRandom random) {
+            return switch (distribution) {
+                case UNIFORM -> random.nextInt(numTuples);
+                case HOTSPOT -> random.nextDouble() < hotAccess ? random.nextInt(hotKeys) : hotKeys + random.nextInt(numTuples - hotKeys);
+                case ZIPFIAN -> (int) (zipfRank(random) * SCRAMBLE % numTuples);
+            };
+        }
+
+        private long zipfRank(final SplittableRandom random) {
+            final double u = random.nextDouble();
+            final double uz = u * zetaN;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, theta)) {
+                return 1;
+            }
+            return Math.min(numTuples - 1, (long) (numTuples * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        /**
+         * Draws count different keys, at most the whole table. Under heavy skew
+         * new keys get rare, so after DISTINCT_MISSES_PER_KEY repeats per key the
+         * rest are drawn uniformly.
+         */
+        int[] distinct(final SplittableRandom random, final int count) {
+            final int[] keys = new int[Math.min(count, numTuples)];
+            final HashSet<Integer> drawn = new HashSet<Integer>(keys.length * 2);
+            int misses = 0;
+            for (int q = 0; q < keys.length; q++) {
+                int key;
+                while (!drawn.add(key = misses < keys.length * DISTINCT_MISSES_PER_KEY ? next(random) : random.nextInt(numTuples))) {
+                    misses++;
+                }
+                keys[q] = key;
+            }
+            return keys;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Redo/undo log of the table. Every update is logged with its before and
+ * after image; a writer's commit is acknowledged once its COMMIT record is on
+ * disk. Records are fixed size and carry a checksum, so a torn tail left by a
+ * crash is recognized and cut off on recovery.
+ *
+ * Group commit: the first committer that finds no flush in progress becomes
+ * the leader. It waits until groupCommitSize commits have joined or
+ * groupCommitDelayMicros have passed, writes everything logged so far and
+ * forces the file once for the whole batch. Larger batches mean fewer fsyncs
+ * per commit at the price of a longer commit latency.
+ *
+ * For fuzzy checkpoints the log knows where each running transaction logged
+ * its first update. A transaction counts as running until its updates are all
+ * in the store (retire) or it has rolled back. Offsets in the file are the
+ * LSNs, so the log only ever grows; nothing before a checkpoint is cut off.
+ */
+final class WriteAheadLog {
+    static final byte UPDATE = 1;
+    static final byte COMMIT = 2;
+    static final byte ABORT = 3;
+    // type, task, tid, old value, old modified_by, new value, new modified_by, crc
+    static final int RECORD_SIZE = 1 + 4 + 4 + 8 + 4 + 8 + 4 + 4;
+    private static final int BUFFER_SIZE = RECORD_SIZE * 32 * 1024;
+
+    private final FileChannel channel;
+    private final int groupCommitSize;
+    private final long groupCommitDelayNanos;
+    private final CRC32C crc = new CRC32C(); // only used under lock
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition joined = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long bufferStart; // log offset of the first byte in buffer
+    private long appendLsn; // log offset after the last appended record
+    private volatile long durableLsn;
+    private boolean flushing = false;
+    private IOException failure; // set when a flush fails; nothing is acknowledged after that
+    private int waitingCommits = 0;
+    private final HashMap<Integer, Long> firstLsn = new HashMap<>(); // running task -> offset of its first update
+    long flushes = 0, commits = 0;
+
+    private WriteAheadLog(final FileChannel channel, final long end, final int groupCommitSize, final long groupCommitDelayMicros) {
+        this.channel = channel;
+        this.bufferStart = end;
+        this.appendLsn = end;
+        this.durableLsn = end;
+        this.groupCommitSize = Math.max(1, groupCommitSize);
+        this.groupCommitDelayNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitDelayMicros);
+    }
+
+    /**
+     * Opens the log, replays it into the store and returns it ready for
+     * appending. Committed and still running transactions are redone, then the
+     * updates of transactions without a COMMIT record are undone newest first.
+     * Each of those gets an ABORT record, forced before the log is handed out:
+     * tasks start over at the same number, and without it a later COMMIT of
+     * the same task would make the next recovery redo the undone updates.
+     */
+    static WriteAheadLog recover(final Path file, final TupleStore store, final int groupCommitSize, final long groupCommitDelayMicros) {
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final ArrayList<Integer> losers = new ArrayList<>();
+            long end = replay(channel, store, store.checkpointLsn, losers);
+            channel.truncate(end);
+            WriteAheadLog wal = new WriteAheadLog(channel, end, groupCommitSize, groupCommitDelayMicros);
+            if (!losers.isEmpty()) {
+                for (int task : losers) {
+                    wal.abort(task);
+                }
+                wal.flush();
+            }
+            return wal;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open log " + file, e);
+        }
+    }
+
+    /** Replays the log from the given offset and returns where it ends; the tasks undone are added to losers. */
+    private static long replay(final FileChannel channel, final TupleStore store, final long from, final ArrayList<Integer> losers) throws IOException {
+        final HashMap<Integer, ArrayList<long[]>> pending = new HashMap<>(); // task -> {lsn, tid, old value bits, old modified_by}
+        final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        final CRC32C crc = new CRC32C();
+        long lsn = from;
+        int redone = 0;
+        scan:
+        while (true) {
+            in.clear();
+            if (channel.read(in, lsn) <= 0) {
+                break;
+            }
+            in.flip();
+            if (in.remaining() < RECORD_SIZE) {
+                break;
+            }
+            while (in.remaining() >= RECORD_SIZE) {
+                int start = in.position();
+                crc.reset();
+                crc.update(in.slice(start, RECORD_SIZE - 4));
+                byte type = in.get();
+                int task = in.getInt();
+                int tid = in.getInt();
+                double oldValue = in.getDouble();
+                int oldModifiedBy = in.getInt();
+                double newValue = in.getDouble();
+                int newModifiedBy = in.getInt();
+                if (in.getInt() != (int) crc.getValue() || (type == UPDATE && (tid < 0 || tid >= store.numTuples))) {
+                    break scan; // torn or garbage tail
+                }
+                if (type == UPDATE) {
+                    store.set(tid, newValue, newModifiedBy);
+                    pending.computeIfAbsent(task, k -> new ArrayList<>())
+                            .add(new long[]{lsn, tid, Double.doubleToRawLongBits(oldValue), oldModifiedBy});
+                    redone++;
+                } else if (type == COMMIT) {
+                    pending.remove(task);
+                } else if (type == ABORT) {
+                    undo(pending.remove(task), store);
+                } else {
+                    break scan;
+                }
+                lsn += RECORD_SIZE;
+            }
+        }
+        // Losers: undo across transactions in reverse log order
+        ArrayList<long[]> undone = new ArrayList<>();
+        for (ArrayList<long[]> updates : pending.values()) {
+            undone.addAll(updates);
+        }
+        undone.sort((a, b) -> Long.compare(a[0], b[0]));
+        undo(undone, store);
+        losers.addAll(pending.keySet());
+        System.out.println("Recovered log: " + redone + " updates redone, " + undone.size() + " undone, " + (lsn - from) + " bytes");
+        return lsn;
+    }
+
+    private static void undo(final ArrayList<long[]> updates, final TupleStore store) {
+        if (updates == null) {
+            return;
+        }
+        for (int i = updates.size() - 1; i >= 0; i--) {
+            long[] u = updates.get(i);
+            store.set((int) u[1], Double.longBitsToDouble(u[2]), (int) u[3]);
+        }
+    }
+
+    void logUpdate(final int task, final int tid, final double oldValue, final int oldModifiedBy, final double newValue, final int newModifiedBy) {
+        append(UPDATE, task, tid, oldValue, oldModifiedBy, newValue, newModifiedBy);
+    }
+
+    /** Logs the rollback of the task's updates since its last commit; no need to wait for disk. */
+    void abort(final int task) {
+        append(ABORT, task, -1, 0, 0, 0, 0);
+    }
+
+    /** The task's committed updates are all in the store; a checkpoint need not replay them. */
+    void retire(final int task) {
+        lock.lock();
+        try {
+            firstLsn.remove(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Where replay has to start for a checkpoint copied from now on: the first
+     * update of the oldest running transaction, or the end of the log.
+     */
+    long checkpointLsn() {
+        lock.lock();
+        try {
+            long lsn = appendLsn;
+            for (long first : firstLsn.values()) {
+                lsn = Math.min(lsn, first);
+            }
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns once everything logged so far is on disk. */
+    void flush() {
+        long lsn;
+        lock.lock();
+        try {
+            lsn = appendLsn;
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(lsn, false);
+    }
+
+    /** Logs a COMMIT record for the task and returns once it is durable. */
+    void commit(final int task) {
+        long lsn = append(COMMIT, task, -1, 0, 0, 0, 0);
+        awaitDurable(lsn, true);
+    }
+
+    private long append(final byte type, final int task, final int tid, final double oldValue, final int oldModifiedBy, final double newValue, final int newModifiedBy) {
+        lock.lock();
+        try {
+            if (buffer.remaining() < RECORD_SIZE) {
+                // Rare: the buffer filled up between two flushes; write it out without forcing
+                writeFully(buffer, bufferStart);
+                buffer.clear();
+                bufferStart = appendLsn;
+            }
+            if (type == UPDATE) {
+                if (!firstLsn.containsKey(task)) { // putIfAbsent would box an lsn for every update
+                    firstLsn.put(task, appendLsn);
+                }
+            } else if (type == ABORT) {
+                firstLsn.remove(task);
+            }
+            int start = buffer.position();
+            buffer.put(type).putInt(task).putInt(tid).putDouble(oldValue).putInt(oldModifiedBy).putDouble(newValue).putInt(newModifiedBy);
+            crc.reset();
+            crc.update(buffer.slice(start, RECORD_SIZE - 4));
+            buffer.putInt((int) crc.getValue());
+            appendLsn += RECORD_SIZE;
+            return appendLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitDurable(final long lsn, final boolean commit) {
+        lock.lock();
+        try {
+            if (commit) {
+                commits++;
+                waitingCommits++;
+                if (waitingCommits >= groupCommitSize) {
+                    joined.signal();
+                }
+            }
+            while (durableLsn < lsn) {
+                if (failure != null) {
+                    throw new UncheckedIOException("Log flush failed", failure);
+                }
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                long wait = commit ? groupCommitDelayNanos : 0;
+                while (waitingCommits < groupCommitSize && wait > 0) {
+                    try {
+                        wait = joined.awaitNanos(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                final ByteBuffer batch = buffer;
+                final long batchStart = bufferStart;
+                final long batchEnd = appendLsn;
+                buffer = spare;
+                bufferStart = batchEnd;
+                waitingCommits = 0;
+                lock.unlock();
+                IOException error = null;
+                try {
+                    writeFully(batch, batchStart);
+                    channel.force(false);
+                } catch (IOException | UncheckedIOException e) {
+                    error = e instanceof UncheckedIOException u ? u.getCause() : (IOException) e;
+                } finally {
+                    lock.lock();
+                    batch.clear();
+                    spare = batch;
+                    flushing = false;
+                    if (error == null) {
+                        flushes++;
+                        durableLsn = batchEnd;
+                    } else {
+                        failure = error;
+                    }
+                    flushed.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeFully(final ByteBuffer b, long position) {
+        b.flip();
+        try {
+            while (b.hasRemaining()) {
+                position += channel.write(b, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Log write failed", e);
+        }
+    }
+}